@@ -1,10 +1,12 @@
 package cn.bridgeli.middleware.sequence;
 
 import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import cn.bridgeli.middleware.sequence.core.SequenceHandle;
+import cn.bridgeli.middleware.sequence.core.SequenceRange;
+import cn.bridgeli.middleware.sequence.format.DatePrefixFormatter;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 全局序号生成服务
@@ -30,7 +32,7 @@ import java.util.Date;
  * <p>
  * step: 大于0，两个序号之间间隔，即步长，默认1
  * <p>
- * count：大于0，每次从数据库中取出到自己内存中的序号个数，默认100， 适当调大该值可减少与数据库交互次数，但也更容易造成序号浪费，比如重启，没用完的序号就浪费掉了 每次从数据库中取出的数据范围是数据库记录的当前值加上count*step
+ * count：大于0，每次从数据库中取出到自己内存中的序号个数，默认100， 适当调大该值可减少与数据库交互次数，但也更容易造成序号浪费，比如重启，没用完的序号就浪费掉了(优雅关闭时会尽量归还，见SequenceContext#shutdown) 每次从数据库中取出的数据范围是数据库记录的当前值加上count*step
  * <p>
  * loop：在序号用完之后是否回头来再起始位置重新开始，默认false， 回头重新使用会出现序号重复，比如从1开始使用，达到最大值，再次从1开始
  *
@@ -51,6 +53,22 @@ public class DynamicSeqService {
         return SequenceContext.getNextSeq(seqName, true, DEFAULT_MIN, DEFAULT_MAX, DEFAULT_STEP, DEFAULT_COUNT, DEFAULT_LOOP);
     }
 
+    /**
+     * 获取序号句柄，保存后通过SequenceHandle.next取号，比nextSeq少一次字符串拼接和缓存查询，适用于调用最频繁的序号
+     * <p>
+     * 例如 private static final SequenceHandle ORDER_ID = DynamicSeqService.handle("order_id");
+     */
+    public static SequenceHandle handle(String seqName) {
+        return SequenceContext.getHandle(seqName, true, DEFAULT_MIN, DEFAULT_MAX, DEFAULT_STEP, DEFAULT_COUNT, DEFAULT_LOOP);
+    }
+
+    /**
+     * 获取序号句柄，参数同nextSeq(seqName, min, max, step, count, loop)
+     */
+    public static SequenceHandle handle(String seqName, long min, long max, long step, long count, boolean loop) {
+        return SequenceContext.getHandle(seqName, true, min, max, step, count, loop);
+    }
+
     /**
      * 获取下一个序号ID, 并指定序列的启示位置
      *
@@ -79,6 +97,45 @@ public class DynamicSeqService {
         return SequenceContext.getNextSeq(seqName, true, min, max, step, count, loop);
     }
 
+    /**
+     * 批量获取size个连续序号，适用于批量导入等场景
+     *
+     * @param seqName
+     * @param size    大于0，序号个数，超过号段长度时直接从数据库预留
+     * @return
+     * @throws IllegalArgumentException
+     */
+    public static SequenceRange nextSeqRange(String seqName, int size) {
+        return SequenceContext.getNextSeqRange(seqName, true, DEFAULT_MIN, DEFAULT_MAX, DEFAULT_STEP, DEFAULT_COUNT, DEFAULT_LOOP, size);
+    }
+
+    /**
+     * 批量获取序号并依次写入ids，写满整个数组
+     *
+     * @param seqName
+     * @param ids     存放序号的数组
+     * @throws IllegalArgumentException
+     */
+    public static void nextSeqs(String seqName, long[] ids) {
+        SequenceContext.getNextSeqs(seqName, true, DEFAULT_MIN, DEFAULT_MAX, DEFAULT_STEP, DEFAULT_COUNT, DEFAULT_LOOP, ids);
+    }
+
+    /**
+     * 异步获取下一个序号，不阻塞调用线程，适用于netty等事件循环线程
+     * <p>
+     * 本地号段有剩余时返回已完成的future，需要访问数据库或者组件还没有初始化时，在异步线程池中完成
+     */
+    public static CompletableFuture<Long> nextSeqAsync(String seqName) {
+        return SequenceContext.getNextSeqAsync(seqName, true, DEFAULT_MIN, DEFAULT_MAX, DEFAULT_STEP, DEFAULT_COUNT, DEFAULT_LOOP);
+    }
+
+    /**
+     * 异步批量获取size个连续序号，不阻塞调用线程
+     */
+    public static CompletableFuture<SequenceRange> nextSeqRangeAsync(String seqName, int size) {
+        return SequenceContext.getNextSeqRangeAsync(seqName, true, DEFAULT_MIN, DEFAULT_MAX, DEFAULT_STEP, DEFAULT_COUNT, DEFAULT_LOOP, size);
+    }
+
     public static String nextSeqWithPrefix(String prefix, String seqName) {
         if (prefix == null) {
             prefix = "";
@@ -87,20 +144,44 @@ public class DynamicSeqService {
     }
 
     public static String nextSeqWithDateFormat(String dateFormat, String seqName) {
-        DateFormat format = new SimpleDateFormat(dateFormat);
-        return nextSeqWithPrefix(format.format(new Date()), seqName);
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName));
+    }
+
+    /**
+     * 日期前缀 + 序号 追加到sb，不产生中间字符串
+     */
+    public static StringBuilder nextSeqWithDateFormat(String dateFormat, String seqName, StringBuilder sb) {
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName), sb);
+    }
+
+    /**
+     * 日期前缀 + 序号 写入buf的offset位置，不产生任何对象
+     *
+     * @return 写入的字符数
+     */
+    public static int nextSeqWithDateFormat(String dateFormat, String seqName, char[] buf, int offset) {
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName), buf, offset);
+    }
+
+    /**
+     * 日期前缀 + 序号 以UTF-8编码写入buf，不产生任何对象
+     *
+     * @return 写入的字节数
+     */
+    public static int nextSeqWithDateFormat(String dateFormat, String seqName, ByteBuffer buf) {
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName), buf);
     }
 
-    private static final String DATE_FORMAT = "yyyyMMdd";
+    private static final DatePrefixFormatter DATE_FORMATTER = DatePrefixFormatter.getInstance("yyyyMMdd");
 
     public static String nextSeqWithDatePrefix(String seqName) {
-        return nextSeqWithDateFormat(DATE_FORMAT, seqName);
+        return DATE_FORMATTER.format(nextSeq(seqName));
     }
 
-    private static final String TIME_FORMAT = "yyyyMMddHHmmss";
+    private static final DatePrefixFormatter TIME_FORMATTER = DatePrefixFormatter.getInstance("yyyyMMddHHmmss");
 
     public static String nextSeqWithTimePrefix(String seqName) {
-        return nextSeqWithDateFormat(TIME_FORMAT, seqName);
+        return TIME_FORMATTER.format(nextSeq(seqName));
     }
 
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 package cn.bridgeli.middleware.sequence;
 
 import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import cn.bridgeli.middleware.sequence.core.SequenceHandle;
+import cn.bridgeli.middleware.sequence.core.SequenceRange;
+import cn.bridgeli.middleware.sequence.format.DatePrefixFormatter;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 全局序号生成服务
@@ -29,6 +31,43 @@ public class FixedSeqService {
         return SequenceContext.getNextSeq(seqName, false, 0, 0, 0, 0, false);
     }
 
+    /**
+     * 获取序号句柄，保存后通过SequenceHandle.next取号，比nextSeq少一次缓存查询，适用于调用最频繁的序号
+     */
+    public static SequenceHandle handle(String seqName) {
+        return SequenceContext.getHandle(seqName, false, 0, 0, 0, 0, false);
+    }
+
+    /**
+     * 批量获取size个连续序号，适用于批量导入等场景
+     */
+    public static SequenceRange nextSeqRange(String seqName, int size) {
+        return SequenceContext.getNextSeqRange(seqName, false, 0, 0, 0, 0, false, size);
+    }
+
+    /**
+     * 批量获取序号并依次写入ids，写满整个数组
+     */
+    public static void nextSeqs(String seqName, long[] ids) {
+        SequenceContext.getNextSeqs(seqName, false, 0, 0, 0, 0, false, ids);
+    }
+
+    /**
+     * 异步获取下一个序号，不阻塞调用线程，适用于netty等事件循环线程
+     * <p>
+     * 本地号段有剩余时返回已完成的future，需要访问数据库或者组件还没有初始化时，在异步线程池中完成
+     */
+    public static CompletableFuture<Long> nextSeqAsync(String seqName) {
+        return SequenceContext.getNextSeqAsync(seqName, false, 0, 0, 0, 0, false);
+    }
+
+    /**
+     * 异步批量获取size个连续序号，不阻塞调用线程
+     */
+    public static CompletableFuture<SequenceRange> nextSeqRangeAsync(String seqName, int size) {
+        return SequenceContext.getNextSeqRangeAsync(seqName, false, 0, 0, 0, 0, false, size);
+    }
+
 
     public static String nextSeqWithPrefix(String prefix, String seqName) {
         if (prefix == null) {
@@ -38,19 +77,43 @@ public class FixedSeqService {
     }
 
     public static String nextSeqWithDateFormat(String dateFormat, String seqName) {
-        DateFormat format = new SimpleDateFormat(dateFormat);
-        return nextSeqWithPrefix(format.format(new Date()), seqName);
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName));
+    }
+
+    /**
+     * 日期前缀 + 序号 追加到sb，不产生中间字符串
+     */
+    public static StringBuilder nextSeqWithDateFormat(String dateFormat, String seqName, StringBuilder sb) {
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName), sb);
+    }
+
+    /**
+     * 日期前缀 + 序号 写入buf的offset位置，不产生任何对象
+     *
+     * @return 写入的字符数
+     */
+    public static int nextSeqWithDateFormat(String dateFormat, String seqName, char[] buf, int offset) {
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName), buf, offset);
+    }
+
+    /**
+     * 日期前缀 + 序号 以UTF-8编码写入buf，不产生任何对象
+     *
+     * @return 写入的字节数
+     */
+    public static int nextSeqWithDateFormat(String dateFormat, String seqName, ByteBuffer buf) {
+        return DatePrefixFormatter.getInstance(dateFormat).format(nextSeq(seqName), buf);
     }
 
-    private static final String DATE_FORMAT = "yyyyMMdd";
+    private static final DatePrefixFormatter DATE_FORMATTER = DatePrefixFormatter.getInstance("yyyyMMdd");
 
     public static String nextSeqWithDatePrefix(String seqName) {
-        return nextSeqWithDateFormat(DATE_FORMAT, seqName);
+        return DATE_FORMATTER.format(nextSeq(seqName));
     }
 
-    private static final String TIME_FORMAT = "yyyyMMddHHmmss";
+    private static final DatePrefixFormatter TIME_FORMATTER = DatePrefixFormatter.getInstance("yyyyMMddHHmmss");
 
     public static String nextSeqWithTimePrefix(String seqName) {
-        return nextSeqWithDateFormat(TIME_FORMAT, seqName);
+        return TIME_FORMATTER.format(nextSeq(seqName));
     }
 }
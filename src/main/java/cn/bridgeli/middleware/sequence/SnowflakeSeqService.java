@@ -0,0 +1,142 @@
+package cn.bridgeli.middleware.sequence;
+
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import cn.bridgeli.middleware.sequence.core.WorkerIdLease;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局序号生成服务
+ * <p>
+ * 原理： 64位long由 时间戳(41位,毫秒,自EPOCH起) + worker id(10位) + 毫秒内计数(12位) 组成，按时间递增
+ * <p>
+ * worker id通过sequence表租用并由后台线程定期续约，租到之后生成序号完全在本地完成，不访问数据库
+ * <p>
+ * 毫秒内计数使用CAS无锁递增，同一毫秒内计数用完时等待到下一毫秒，不借用未来的时间戳；
+ * 时钟回拨不超过maxBackwardMillis时沿用上次的时间戳继续递增，计数用完后等待时钟追上，超过maxBackwardMillis时报错。
+ * 因此已发出序号的时间戳最多比当前时钟超前maxBackwardMillis，worker id租约在到期前maxBackwardMillis停止发号，
+ * 过期后再等maxBackwardMillis加上时钟偏差余量才能被其他jvm抢占，见WorkerIdLease
+ * <p>
+ * 本类为snowflake模式，与fixed、dynamic模式的序号不保证不重复
+ *
+ * @author bridgeli
+ */
+public class SnowflakeSeqService {
+
+    /**
+     * 起始时间 2016-01-01 00:00:00 UTC
+     */
+    public static final long EPOCH = 1451606400000L;
+
+    private static final int WORKER_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    private static final long TIMESTAMP_SHIFT = WORKER_ID_BITS + SEQUENCE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final long DEFAULT_LEASE_MILLIS = 60 * 1000L;
+    private static final long DEFAULT_MAX_BACKWARD_MILLIS = 1000L;
+    /**
+     * 计数用完等待下一毫秒时每次park的时长
+     */
+    private static final long WAIT_NANOS = 100 * 1000L;
+
+    private static final WorkerIdLease LEASE = new WorkerIdLease(MAX_WORKER_ID, DEFAULT_LEASE_MILLIS, DEFAULT_MAX_BACKWARD_MILLIS);
+
+    /**
+     * 时间戳(相对EPOCH) << SEQUENCE_BITS | 毫秒内计数
+     */
+    private static final AtomicLong STATE = new AtomicLong();
+
+    private static volatile long maxBackwardMillis = DEFAULT_MAX_BACKWARD_MILLIS;
+
+    /**
+     * 设置允许的最大时钟回拨(毫秒)，回拨不超过该值时沿用上次的时间戳继续生成，超过则报错；需要小于租约时长
+     */
+    public static void setMaxBackwardMillis(long _maxBackwardMillis) {
+        LEASE.setMaxBackwardMillis(_maxBackwardMillis);
+        maxBackwardMillis = _maxBackwardMillis;
+    }
+
+    /**
+     * 设置jvm之间的时钟偏差余量(毫秒)，过期的worker id要再等maxBackwardMillis加上该余量才能被抢占
+     */
+    public static void setClockSkewMillis(long clockSkewMillis) {
+        LEASE.setClockSkewMillis(clockSkewMillis);
+    }
+
+    /**
+     * 提前租用worker id，避免第一次取号时访问数据库
+     */
+    public static int init() {
+        return LEASE.acquire();
+    }
+
+    public static long nextSeq() {
+        WorkerIdLease.Grant grant = LEASE.getGrant();
+        if (grant == null) {
+            // 第一次取号或租约丢失后重新租用
+            LEASE.acquire();
+            grant = LEASE.getGrant();
+            if (grant == null) {
+                throw new SequenceException("worker id租约已失效");
+            }
+        }
+        long backward = maxBackwardMillis;
+        for (; ; ) {
+            long millis = System.currentTimeMillis();
+            // 每次CAS前用同一个租约和本次的时间校验，等待下一毫秒或者线程停顿后租约可能已经到期
+            if (!grant.isValid(millis, backward)) {
+                throw new SequenceException(String.format("worker id租约已失效,workerId:%d,租约到期时间:%d", grant.getWorkerId(), grant.getExpire()));
+            }
+            long now = millis - EPOCH;
+            long prev = STATE.get();
+            long next = nextState(prev, now, backward);
+            if (next < 0) {
+                LockSupport.parkNanos(WAIT_NANOS);
+                continue;
+            }
+            if (STATE.compareAndSet(prev, next)) {
+                return compose(next, grant.getWorkerId());
+            }
+        }
+    }
+
+    /**
+     * 根据上次的状态和当前时间计算下一个状态
+     *
+     * @param prev 上次的状态，时间戳(相对EPOCH) << SEQUENCE_BITS | 毫秒内计数
+     * @param now  当前时间(相对EPOCH)
+     * @return 下一个状态；本毫秒计数已用完、需要等待时钟前进时返回-1
+     * @throws SequenceException 时钟回拨超过maxBackwardMillis
+     */
+    static long nextState(long prev, long now, long maxBackwardMillis) {
+        long prevTimestamp = prev >>> SEQUENCE_BITS;
+        if (now > prevTimestamp) {
+            return now << SEQUENCE_BITS;
+        }
+        if (prevTimestamp - now > maxBackwardMillis) {
+            throw new SequenceException(String.format("时钟回拨%dms,超过允许的%dms", prevTimestamp - now, maxBackwardMillis));
+        }
+        // 同一毫秒或时钟小幅回拨，沿用上次的时间戳，计数用完时等待而不是进位到未来的毫秒
+        if ((prev & SEQUENCE_MASK) == SEQUENCE_MASK) {
+            return -1;
+        }
+        return prev + 1;
+    }
+
+    /**
+     * 把状态和worker id组合为序号
+     */
+    static long compose(long state, int workerId) {
+        return ((state >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | ((long) workerId << SEQUENCE_BITS) | (state & SEQUENCE_MASK);
+    }
+
+    /**
+     * 当前jvm租用的worker id，未租用时为-1
+     */
+    public static int getWorkerId() {
+        return LEASE.getWorkerId();
+    }
+}
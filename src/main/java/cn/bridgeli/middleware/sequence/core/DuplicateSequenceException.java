@@ -0,0 +1,19 @@
+package cn.bridgeli.middleware.sequence.core;
+
+/**
+ * 新建序号配置时主键重复，即其他jvm已经创建了同名的序号
+ *
+ * @author bridgeli
+ */
+public class DuplicateSequenceException extends SequenceException {
+
+    private static final long serialVersionUID = 6180529349720183464L;
+
+    public DuplicateSequenceException(String message) {
+        super(message);
+    }
+
+    public DuplicateSequenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
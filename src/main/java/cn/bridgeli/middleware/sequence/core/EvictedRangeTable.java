@@ -0,0 +1,168 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 被淘汰序列的剩余号段表，序列重新使用时直接取回号段，不访问数据库，也不浪费淘汰时没用完的序号
+ * <p/>
+ * 按序列名的hash开放寻址，每个槽位在long[]中占{@value #STRIDE}个元素，另有一个String[]保存序列名用于确认，不为每个号段分配对象；
+ * 同一个序列可以保留多个号段，取回时一起取走并按放入的先后排序；最多探测{@value #MAX_PROBES}个槽位，都被占用时覆盖第一个槽位，被覆盖的号段作废，和没有本表时一样
+ *
+ * @author bridgeli
+ */
+final class EvictedRangeTable {
+
+    private static final int STRIDE = 7;
+    private static final int CURRENT = 0;
+    private static final int END = 1;
+    private static final int STEP = 2;
+    private static final int COUNT = 3;
+    private static final int MAX_IN_DB = 4;
+    private static final int LOOP = 5;
+    private static final int ORDER = 6;
+    private static final int MAX_PROBES = 8;
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 第一次淘汰时才分配
+     */
+    private String[] names;
+    private long[] slots;
+    /**
+     * 在锁内修改，volatile保证统计和日志不加锁读取时看到最新值
+     */
+    private volatile int size;
+    /**
+     * 放入的序号，号段可能放在同一序列已有号段之前的空槽位，取回时按它排序
+     */
+    private long order;
+
+    /**
+     * @param maxEntries 最多保留的号段个数，槽位数为不小于它的2的幂
+     */
+    EvictedRangeTable(int maxEntries) {
+        int capacity = 1;
+        while (capacity < maxEntries) {
+            capacity <<= 1;
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 保存序列剩余的号段[current, end)和取回时重建序列需要的配置项
+     *
+     * @return 被覆盖而作废的号段个数，0或1
+     */
+    int put(String seqName, long current, long end, Sequence sequence) {
+        lock.lock();
+        try {
+            if (slots == null) {
+                names = new String[capacity];
+                slots = new long[capacity * STRIDE];
+            }
+            int home = indexOf(seqName);
+            int target = home;
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int index = (home + i) & (capacity - 1);
+                if (names[index] == null) {
+                    target = index;
+                    break;
+                }
+            }
+            int dropped = 0;
+            if (names[target] == null) {
+                size++;
+            } else {
+                dropped = 1;
+            }
+            names[target] = seqName;
+            int offset = target * STRIDE;
+            slots[offset + CURRENT] = current;
+            slots[offset + END] = end;
+            slots[offset + STEP] = sequence.getStep();
+            slots[offset + COUNT] = sequence.getCount();
+            slots[offset + MAX_IN_DB] = sequence.getMaxInDB();
+            slots[offset + LOOP] = Sequence.LOOP_YES.equals(sequence.getLoop()) ? 1 : 0;
+            slots[offset + ORDER] = order++;
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取走序列保留的所有号段，按放入的先后顺序返回，把配置项写入sequence；没有时返回空列表
+     * <p/>
+     * 其他序列取走号段后空出的槽位可能在本序列已有号段之前，所以探测顺序不是放入顺序，需要按放入序号排序
+     */
+    List<SequenceSegment> take(String seqName, Sequence sequence) {
+        lock.lock();
+        try {
+            List<SequenceSegment> segments = new ArrayList<SequenceSegment>(2);
+            if (size == 0) {
+                return segments;
+            }
+            long[] orders = new long[MAX_PROBES];
+            int home = indexOf(seqName);
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int index = (home + i) & (capacity - 1);
+                if (seqName.equals(names[index])) {
+                    int offset = index * STRIDE;
+                    sequence.setStep(slots[offset + STEP]);
+                    sequence.setCount(slots[offset + COUNT]);
+                    sequence.setMaxInDB(slots[offset + MAX_IN_DB]);
+                    sequence.setLoop(slots[offset + LOOP] == 1 ? Sequence.LOOP_YES : Sequence.LOOP_NO);
+                    // 按放入序号插入排序，一个序列最多MAX_PROBES个号段
+                    int pos = segments.size();
+                    while (pos > 0 && orders[pos - 1] > slots[offset + ORDER]) {
+                        orders[pos] = orders[pos - 1];
+                        pos--;
+                    }
+                    orders[pos] = slots[offset + ORDER];
+                    segments.add(pos, new SequenceSegment(slots[offset + CURRENT], slots[offset + END]));
+                    names[index] = null;
+                    size--;
+                }
+            }
+            return segments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取走所有保留的号段，用于关闭时归还数据库，返回的每个元素为{current, end}，与names一一对应
+     */
+    List<long[]> drain(List<String> seqNames) {
+        lock.lock();
+        try {
+            List<long[]> ranges = new ArrayList<long[]>(size);
+            if (size == 0) {
+                return ranges;
+            }
+            for (int index = 0; index < capacity; index++) {
+                if (names[index] != null) {
+                    seqNames.add(names[index]);
+                    ranges.add(new long[]{slots[index * STRIDE + CURRENT], slots[index * STRIDE + END]});
+                    names[index] = null;
+                }
+            }
+            size = 0;
+            return ranges;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int indexOf(String seqName) {
+        int h = seqName.hashCode();
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+}
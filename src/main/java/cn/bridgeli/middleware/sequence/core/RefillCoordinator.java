@@ -0,0 +1,168 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 合并多个序号同时发生的取号段请求(group commit)
+ * <p>
+ * 第一个到达的请求线程成为leader，等待windowNanos或者攒够maxBatch个请求后，在一个事务中批量取号段，然后唤醒其他请求线程；
+ * 批次处理完后还有排队的请求时，把leader交给最早排队的请求线程，不需要额外的后台线程
+ *
+ * @author bridgeli
+ */
+class RefillCoordinator {
+
+    private static final int WAITING = 0;
+    private static final int LEADER = 1;
+    private static final int DONE = 2;
+
+    private final long windowNanos;
+    private final int maxBatch;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition full = lock.newCondition();
+    private final List<Request> pending = new ArrayList<Request>();
+    private boolean leaderActive;
+
+    RefillCoordinator(long windowMicros, int maxBatch) {
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+    }
+
+    long getWindowMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(windowNanos);
+    }
+
+    int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * 提交一个取号段请求并等待所在批次完成
+     */
+    SequenceSegment claim(Sequence sequence) {
+        Request request = new Request(sequence);
+        lock.lock();
+        try {
+            pending.add(request);
+            if (!leaderActive) {
+                leaderActive = true;
+                request.state = LEADER;
+            } else if (pending.size() >= maxBatch) {
+                full.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        request.await(this);
+        if (request.error != null) {
+            throw request.error;
+        }
+        return request.segment;
+    }
+
+    /**
+     * leader收集一个批次并处理，处理完交出leader
+     */
+    private void lead() {
+        List<Request> batch;
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            long nanos = windowNanos;
+            while (pending.size() < maxBatch && nanos > 0) {
+                try {
+                    nanos = full.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            List<Request> head = pending.subList(0, Math.min(maxBatch, pending.size()));
+            batch = new ArrayList<Request>(head);
+            head.clear();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            SequenceContext.claimSegmentsFromDB(batch);
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                if (request.segment == null && request.error == null) {
+                    request.error = e;
+                }
+            }
+        } finally {
+            for (Request request : batch) {
+                request.complete();
+            }
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    leaderActive = false;
+                } else {
+                    pending.get(0).promote();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 一个序号的取号段请求，结果由leader线程写入，state的volatile写保证对请求线程可见
+     */
+    static class Request {
+
+        final Sequence sequence;
+        SequenceSegment segment;
+        RuntimeException error;
+
+        private final Thread thread = Thread.currentThread();
+        private volatile int state = WAITING;
+
+        Request(Sequence sequence) {
+            this.sequence = sequence;
+        }
+
+        private void promote() {
+            state = LEADER;
+            LockSupport.unpark(thread);
+        }
+
+        private void complete() {
+            state = DONE;
+            LockSupport.unpark(thread);
+        }
+
+        private void await(RefillCoordinator coordinator) {
+            boolean interrupted = false;
+            while (true) {
+                int current = state;
+                if (current == DONE) {
+                    break;
+                }
+                if (current == LEADER) {
+                    state = WAITING;
+                    coordinator.lead();
+                    continue;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package cn.bridgeli.middleware.sequence.core;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 import lombok.Data;
 import org.slf4j.Logger;
@@ -20,6 +23,10 @@ public class Sequence implements Comparable<Sequence> {
 
     public static final String LOOP_YES = "Y";
     public static final String LOOP_NO = "N";
+    /**
+     * 分片行模式下物理行名的分隔符，第i行名为name#i
+     */
+    public static final String ROW_SEPARATOR = "#";
 
     /**
      * 距离Long.MAX 不足10亿时日志提醒
@@ -39,7 +46,7 @@ public class Sequence implements Comparable<Sequence> {
     /**
      * 最大序号(不包含)
      */
-    private long max;
+    private volatile long max;
     /**
      * 最小序号(包含)
      */
@@ -60,6 +67,108 @@ public class Sequence implements Comparable<Sequence> {
      * 内存中最后更新时间
      */
     private long lastUpdate = System.currentTimeMillis();
+    /**
+     * 缓存淘汰使用的访问标记，最近被访问过的序列在本轮淘汰中保留
+     */
+    private volatile boolean referenced;
+    /**
+     * 是否已被淘汰出缓存，在持有switchLock和refillLock时设置；之后取回的号段放入淘汰保留表，取号线程改用缓存中的序列
+     */
+    private volatile boolean evicted;
+    /**
+     * 后台预取的号段环，当前号段用完后直接切换到最早预取的号段，不再同步访问数据库；深度为1时即双buffer
+     */
+    private final ConcurrentLinkedQueue<SequenceSegment> reserveRing = new ConcurrentLinkedQueue<SequenceSegment>();
+    /**
+     * 切换本地号段时持有的锁
+     * <p/>
+     * 和refillLock一样使用j.u.c的锁而不是synchronized，虚拟线程在锁内等待数据库时不会占住载体线程
+     */
+    private final ReentrantLock switchLock = new ReentrantLock();
+    /**
+     * 访问数据库取号段时持有的锁，后台预取只持有该锁，不阻塞从号段环切换号段的取号线程；需要同时持有时先取switchLock
+     */
+    private final ReentrantLock refillLock = new ReentrantLock();
+    /**
+     * 是否有后台预取任务在执行
+     */
+    private final AtomicBoolean prefetching = new AtomicBoolean(false);
+    /**
+     * 号段环的目标深度，数据库变慢或失败时加倍，恢复后逐步减到minRingDepth
+     */
+    private volatile int ringDepth = 1;
+    private int minRingDepth = 1;
+    private int maxRingDepth = 1;
+    /**
+     * 上次预取失败的时间，失败后间隔一段时间再重试
+     */
+    private volatile long lastPrefetchFailure;
+    /**
+     * 上次预取慢或者失败、以及上次缩小号段环深度的时间
+     */
+    private volatile long lastRingAdjust;
+    /**
+     * 上次切换号段的时间和按号段估算的每毫秒消耗序号个数
+     */
+    private long lastSwitchTime;
+    private volatile double consumeRate;
+    /**
+     * 自适应号段长度的下限，0表示不开启自适应，号段长度固定为count
+     */
+    private long minCount;
+    /**
+     * 自适应号段长度的上限
+     */
+    private long maxCount;
+    /**
+     * 期望的两次从数据库取号段的时间间隔(毫秒)，取号段比该间隔快时号段加倍，比两倍间隔慢时号段减半
+     */
+    private long targetRefillInterval;
+    /**
+     * 自适应模式下当前使用的号段长度
+     */
+    private long segmentCount;
+    /**
+     * 上次从数据库取号段的时间
+     */
+    private long lastRefillTime;
+    /**
+     * 宽松顺序模式下每个线程一次从号段中取走的序号个数，0表示不开启
+     * <p/>
+     * 开启后各线程在自己的子号段内普通自增取号，序号仍全局唯一，但只保证单个线程内递增
+     */
+    private volatile int relaxedChunk;
+    /**
+     * 上次取号段后数据库中剩余的序号个数
+     */
+    private volatile long remainingInDB;
+    /**
+     * 上次加锁查询时数据库中的最大序号
+     */
+    private long maxInDB;
+    /**
+     * 分片行模式下的数据库行数，0表示不分片，序号只对应数据库中与name同名的一行
+     * <p/>
+     * 分片时第i行名为name#i，各行步长为逻辑步长*shards，起始值错开i个逻辑步长，各行的序号互不重叠
+     */
+    private int shards;
+    /**
+     * 分片行模式下本jvm优先取号段的行
+     */
+    private volatile int shard;
+    /**
+     * 当前号段所属的数据库行，不分片时为null
+     */
+    private volatile String row;
+    /**
+     * 宽松顺序模式下当前线程持有的子号段{下一个序号, 结束序号(不包含), 步长}
+     */
+    private final ThreadLocal<long[]> localRange = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[3];
+        }
+    };
 
     @Override
     public int compareTo(Sequence arg0) {
@@ -89,28 +198,175 @@ public class Sequence implements Comparable<Sequence> {
         return this.name.equals(sequence.getName());
     }
 
+    /**
+     * 第index个分片行的行名，不分片时为序号本身的name
+     */
+    public String rowName(int index) {
+        return shards > 0 ? rowName(name, index) : name;
+    }
+
+    public static String rowName(String name, int index) {
+        return name + ROW_SEPARATOR + index;
+    }
+
     /**
      * 使用CAS操作来自增一个step
+     * <p/>
+     * 先读current再读max，配合{@link #switchTo(SequenceSegment)}的写入顺序，保证切换号段的过程中不会取到不属于本jvm的序号
      *
      * @return
      */
     public long getCurrentAndIncrementStep() {
-        for (; ; ) {
+        for (int retries = 0; ; retries++) {
             long expect = this.getCurrent();
+            long limit = this.getMax();
+            if (expect >= limit) {
+                // 本地号段已用完或正在切换号段
+                throw new CASEqualsException();
+            }
             long update;
-            if (this.getMax() - this.getCurrent() > this.getStep()) {
-                update = this.getCurrent() + this.getStep();
+            if (limit - expect > this.getStep()) {
+                update = expect + this.getStep();
             } else {
-                update = this.getMax();
+                update = limit;
+            }
+            if (currentFieldUpdater.compareAndSet(this, expect, update)) {
+                if (retries > 0) {
+                    SequenceMetrics.recordCasRetry(retries);
+                }
+                return expect;
             }
-            if (expect == update) {
+        }
+
+    }
+
+    /**
+     * 宽松顺序模式下取号，当前线程的子号段用完后使用一次CAS从号段中再取relaxedChunk个序号
+     *
+     * @throws CASEqualsException 号段已用完或并发取子号段失败
+     */
+    public long getFromLocalRange() {
+        long[] range = localRange.get();
+        if (range[0] >= range[1]) {
+            long size = Math.min(this.getRelaxedChunk(), this.remaining());
+            if (size <= 0) {
                 throw new CASEqualsException();
             }
+            long step = this.getStep();
+            long start = this.getCurrentAndIncrementSteps(size);
+            range[0] = start;
+            range[1] = start + (size - 1) * step + 1;
+            range[2] = step;
+        }
+        long seq = range[0];
+        range[0] = seq + range[2];
+        return seq;
+    }
+
+    /**
+     * 使用一次CAS操作从本地号段取连续的size个序号
+     *
+     * @return 第一个序号，后续序号依次加step
+     * @throws CASEqualsException 本地号段剩余序号不足size个
+     */
+    public long getCurrentAndIncrementSteps(long size) {
+        for (int retries = 0; ; retries++) {
+            long expect = this.getCurrent();
+            long limit = this.getMax();
+            long remaining = remaining(expect, limit);
+            if (remaining < size) {
+                throw new CASEqualsException();
+            }
+            long update = remaining == size ? limit : expect + size * this.getStep();
             if (currentFieldUpdater.compareAndSet(this, expect, update)) {
+                if (retries > 0) {
+                    SequenceMetrics.recordCasRetry(retries);
+                }
                 return expect;
             }
         }
+    }
+
+    /**
+     * 本地号段剩余序号个数
+     */
+    public long remaining() {
+        long expect = this.getCurrent();
+        return remaining(expect, this.getMax());
+    }
+
+    private long remaining(long expect, long limit) {
+        if (expect >= limit) {
+            return 0;
+        }
+        return (limit - expect - 1) / this.getStep() + 1;
+    }
+
+    /**
+     * 本地号段和号段环中剩余的序号总数
+     */
+    public long available() {
+        long available = remaining();
+        for (SequenceSegment segment : reserveRing) {
+            available += remaining(segment.getStart(), segment.getEnd());
+        }
+        return available;
+    }
+
+    /**
+     * 按最近的消耗速度估算本地序号还能用多久(毫秒)，数据库不可用时即可以继续发号的时间；还没有消耗速度时返回-1
+     */
+    public long timeToEmptyMillis() {
+        double rate = consumeRate;
+        return rate <= 0 ? -1 : (long) (available() / rate);
+    }
+
+    /**
+     * 号段环中的号段不足目标深度时需要预取；只差最后一个号段时，等当前号段剩余不高于threshold比例再预取，避免过早占用数据库中的序号
+     */
+    public boolean needsReserve(double threshold) {
+        int size = reserveRing.size();
+        int depth = ringDepth;
+        if (size >= depth) {
+            return false;
+        }
+        if (size < depth - 1) {
+            return true;
+        }
+        long max = this.getMax();
+        long min = this.getMin();
+        return max - this.getCurrent() <= (max - min) * threshold;
+    }
+
+    /**
+     * 根据预取耗时调整号段环深度：慢或者失败时加倍，持续正常一段时间后每次减一
+     *
+     * @param slow                 本次预取是否慢或者失败
+     * @param shrinkIntervalMillis 两次减小深度的最小间隔
+     */
+    public void adjustRingDepth(boolean slow, long shrinkIntervalMillis) {
+        long now = System.currentTimeMillis();
+        int depth = ringDepth;
+        if (slow) {
+            lastRingAdjust = now;
+            int grown = (int) Math.min((long) depth * 2, maxRingDepth);
+            if (grown > depth) {
+                LOGGER.warn(String.format("%s数据库取号段变慢,号段环深度调整,%d->%d", this.getName(), depth, grown));
+                ringDepth = grown;
+            }
+        } else if (depth > minRingDepth && now - lastRingAdjust >= shrinkIntervalMillis) {
+            lastRingAdjust = now;
+            ringDepth = depth - 1;
+        }
+    }
 
+    /**
+     * 设置号段环的深度范围，当前深度随之收敛到范围内
+     */
+    public void setRingDepthRange(int minDepth, int maxDepth) {
+        this.minRingDepth = minDepth;
+        this.maxRingDepth = maxDepth;
+        this.ringDepth = Math.max(minDepth, Math.min(maxDepth, ringDepth));
     }
 
     /**
@@ -119,33 +375,196 @@ public class Sequence implements Comparable<Sequence> {
      * 序号范围的所有配置项均从数据库更新，保证修改数据库后本地内存及时生效
      */
     public void updateFromDB(Sequence seqFromDB) {
+        SequenceSegment segment = allocateFromDB(seqFromDB);
+        switchTo(shards > 0 ? segment.withRow(seqFromDB.getName()) : segment);
+    }
+
+    /**
+     * 根据数据库记录计算本jvm下一个号段，同步序号配置项，但不改变本地正在使用的号段
+     * <p/>
+     * 调用方需要把返回号段的end更新回数据库
+     */
+    public SequenceSegment allocateFromDB(Sequence seqFromDB) {
+        return allocateFromDB(seqFromDB, 0);
+    }
+
+    /**
+     * 同{@link #allocateFromDB(Sequence)}，使用调用方已经计算好的号段长度
+     *
+     * @param count 号段长度，不大于0时同步配置项后按{@link #nextSegmentCount()}计算
+     */
+    public SequenceSegment allocateFromDB(Sequence seqFromDB, long count) {
         if (seqFromDB == null) {
             throw new SequenceException("序号数据库记录异常!可能数据库记录被删除,后续可能产生重复id!!");
         }
 
-        this.setCurrent(seqFromDB.getCurrent());
+        long start = startFromDB(seqFromDB);
+
+        // 保证countStep没有溢出而且小于最大值和当前值差额，否则直接把当前到最大值这一段取走
+        if (count <= 0) {
+            count = nextSegmentCount();
+        }
+        long countStep = count * this.getStep();
+        SequenceSegment segment;
+        if (seqFromDB.getMax() - start > countStep && countStep >= count && countStep >= this.getStep()) {
+            segment = new SequenceSegment(start, start + countStep);
+        } else {
+            segment = new SequenceSegment(start, seqFromDB.getMax());
+        }
+        this.setRemainingInDB((seqFromDB.getMax() - segment.getEnd()) / this.getStep());
+        return segment;
+    }
+
+    /**
+     * 单条语句领取号段后，根据数据库返回的新current计算本jvm的号段[end - length, end)
+     * <p/>
+     * 领取语句保证了领取后不超过数据库中的最大值，序号配置项使用本地缓存的值，在下次加锁查询取号段时再从数据库同步
+     *
+     * @param end    领取后数据库中的current
+     * @param length 领取的长度，即号段长度*步长
+     */
+    public SequenceSegment claimedFromDB(long end, long length) {
+        long start = end - length;
+        long remaining = this.getMaxInDB() - start;
+        if (remaining < SHORTAGE_WARN && LOOP_NO.equals(this.getLoop())) {
+            LOGGER.warn(String.format("%s全局序列号已经不足，剩余%d,请尽快处理，改进方案！！！", this.getName(), remaining));
+            SequenceMetrics.recordShortage(this.getName(), remaining);
+        }
+        this.setRemainingInDB((this.getMaxInDB() - end) / this.getStep());
+        return new SequenceSegment(start, end);
+    }
+
+    /**
+     * 单条语句领取号段的长度，即号段长度*步长，溢出时返回-1
+     */
+    public long segmentLength(long count) {
+        long countStep = count * this.getStep();
+        if (count <= 0 || this.getStep() <= 0 || countStep / this.getStep() != count) {
+            return -1;
+        }
+        return countStep;
+    }
+
+    /**
+     * 根据数据库记录直接预留连续的size个序号，不改变本地正在使用的号段，用于超过本地号段长度的批量取号
+     * <p/>
+     * 调用方需要把返回号段的end更新回数据库
+     */
+    public SequenceSegment reserveFromDB(Sequence seqFromDB, long size) {
+        if (seqFromDB == null) {
+            throw new SequenceException("序号数据库记录异常!可能数据库记录被删除,后续可能产生重复id!!");
+        }
+        long start = startFromDB(seqFromDB);
+        long length = size * this.getStep();
+        if (length / this.getStep() != size) {
+            throw new SequenceException(String.format("%s批量取号个数过大:%d", this.getName(), size));
+        }
+        if (seqFromDB.getMax() - start < length) {
+            if (LOOP_NO.equals(this.getLoop()) || seqFromDB.getMax() - seqFromDB.getMin() < length) {
+                throw new SequenceException(String.format("%s剩余序号不足%d个，请调整!!!", this.getName(), size));
+            }
+            // 剩余部分不足，从头开始使用
+            start = seqFromDB.getMin();
+        }
+        return new SequenceSegment(start, start + length);
+    }
+
+    /**
+     * 同步序号配置项，并计算本次取号段的起始序号
+     */
+    private long startFromDB(Sequence seqFromDB) {
         this.setLoop(seqFromDB.getLoop());
         this.setStep(seqFromDB.getStep());
         this.setCount(seqFromDB.getCount());
+        this.setMaxInDB(seqFromDB.getMax());
 
-        if (this.getCurrent() >= seqFromDB.getMax()) {
+        long start = seqFromDB.getCurrent();
+        if (start >= seqFromDB.getMax()) {
             if (LOOP_NO.equals(this.getLoop())) {
                 throw new SequenceException("序号已使用完，请调整!!!");
             } else {
                 // 从头开始使用
-                this.setCurrent(seqFromDB.getMin());
+                start = seqFromDB.getMin();
             }
-        } else if (seqFromDB.getMax() - this.getCurrent() < SHORTAGE_WARN && LOOP_NO.equals(this.getLoop())) {
-            LOGGER.warn(String.format("%s全局序列号已经不足，剩余%d,请尽快处理，改进方案！！！", this.getName(), seqFromDB.getMax() - this.getCurrent()));
+        } else if (seqFromDB.getMax() - start < SHORTAGE_WARN && LOOP_NO.equals(this.getLoop())) {
+            LOGGER.warn(String.format("%s全局序列号已经不足，剩余%d,请尽快处理，改进方案！！！", this.getName(), seqFromDB.getMax() - start));
+            SequenceMetrics.recordShortage(this.getName(), seqFromDB.getMax() - start);
         }
+        return start;
+    }
 
-        // 保证countStep没有溢出而且小于最大值和当前值差额，否则直接把当前到最大值这一段取走
-        long countStep = this.getCount() * this.getStep();
-        if (seqFromDB.getMax() - this.getCurrent() > countStep && countStep >= this.getCount() && countStep >= this.getStep()) {
-            this.setMax(this.getCurrent() + this.getCount() * this.getStep());
-        } else {
-            this.setMax(seqFromDB.getMax());
+    /**
+     * 根据两次取号段的时间间隔计算本次号段长度，未开启自适应时为数据库中配置的count
+     */
+    public long nextSegmentCount() {
+        if (this.getMinCount() <= 0) {
+            return this.getCount();
+        }
+        long now = System.currentTimeMillis();
+        long size = this.getSegmentCount() > 0 ? this.getSegmentCount() : this.getCount();
+        if (this.getLastRefillTime() > 0) {
+            long interval = now - this.getLastRefillTime();
+            if (interval < this.getTargetRefillInterval()) {
+                size = size > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : size * 2;
+            } else if (interval > this.getTargetRefillInterval() * 2) {
+                size = size / 2;
+            }
+        }
+        size = Math.max(this.getMinCount(), Math.min(this.getMaxCount(), size));
+        if (size != this.getSegmentCount() && this.getSegmentCount() > 0) {
+            LOGGER.info(String.format("%s号段长度调整,%d->%d", this.getName(), this.getSegmentCount(), size));
+        }
+        this.setSegmentCount(size);
+        this.setLastRefillTime(now);
+        return size;
+    }
+
+    /**
+     * 把当前号段剩余的[current, max)整体取走，之后本号段不能再取号，用于关闭时把剩余序号归还数据库
+     *
+     * @return 剩余的号段，没有剩余时返回null
+     */
+    public SequenceSegment seal() {
+        while (true) {
+            long expect = this.getCurrent();
+            long limit = this.getMax();
+            if (expect >= limit) {
+                return null;
+            }
+            if (currentFieldUpdater.compareAndSet(this, expect, limit)) {
+                return new SequenceSegment(expect, limit, row);
+            }
+        }
+    }
+
+    /**
+     * 切换到新的号段
+     * <p/>
+     * 先把max置为最小值让并发的取号线程认为号段已用完，再写current，最后写max，
+     * 避免取号线程看到新current和旧max的组合而取到其他jvm的序号
+     */
+    public void switchTo(SequenceSegment segment) {
+        updateConsumeRate();
+        this.setMax(Long.MIN_VALUE);
+        this.setRow(segment.getRow());
+        this.setCurrent(segment.getStart());
+        this.setMin(segment.getStart());
+        this.setMax(segment.getEnd());
+    }
+
+    /**
+     * 切换号段时用旧号段的长度和使用时间更新消耗速度，按0.5做指数平滑
+     */
+    private void updateConsumeRate() {
+        long now = System.currentTimeMillis();
+        long last = lastSwitchTime;
+        lastSwitchTime = now;
+        if (last == 0 || this.getStep() <= 0) {
+            return;
         }
-        this.setMin(this.getCurrent());
+        long consumed = (this.getMax() - this.getMin()) / this.getStep();
+        double rate = (double) consumed / Math.max(1, now - last);
+        double previous = consumeRate;
+        consumeRate = previous <= 0 ? rate : (previous + rate) / 2;
     }
 }
@@ -0,0 +1,263 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界的序列缓存
+ * <p/>
+ * 淘汰使用CLOCK算法：缓存个数超过evictionAnalysisThreshold后，命中时只在序列的访问标记未设置时写一次；
+ * 缓存个数达到maxCacheSize时，时钟指针从上次停下的位置继续扫描，清除访问标记，淘汰没有访问标记的序列，直到剩余survivorSizeAfterEviction个。
+ * 每次淘汰最多扫描两圈，平摊到每次新增序列上为O(1)
+ * <p/>
+ * 被淘汰序列没用完的号段和号段环保留在EvictedRangeTable中，序列重新加载时先从中取回，分片行模式的序列不保留；
+ * 正在从数据库取号段的序列本轮不淘汰
+ *
+ * @author bridgeli
+ */
+public class SequenceCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
+
+    private static final int DEFAULT_MAX_CACHE_SIZE = 50000;
+    private static final int DEFAULT_EVICTION_ANALYSIS_THRESHOLD = 40000;
+    private static final int DEFAULT_SURVIVOR_SIZE_AFTER_EVICTION = 30000;
+    private static final int MIN_EVICTED_RANGES = 1024;
+
+    private final ConcurrentMap<String, Sequence> sequences = new ConcurrentHashMap<String, Sequence>();
+
+    /**
+     * maxCacheSize 缓存最大值 evictionAnalysisThreshold 缓存个数超过该值开始记录序列的访问标记 survivorSizeAfterEviction 缓存个数达到最大值后淘汰到的存留个数
+     * <p/>
+     * 三者关系为 maxCacheSize > evictionAnalysisThreshold > survivorSizeAfterEviction > 0
+     */
+    @Getter
+    private volatile int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    @Getter
+    private volatile int evictionAnalysisThreshold = DEFAULT_EVICTION_ANALYSIS_THRESHOLD;
+    @Getter
+    private volatile int survivorSizeAfterEviction = DEFAULT_SURVIVOR_SIZE_AFTER_EVICTION;
+
+    /**
+     * 同一时刻只允许一个线程淘汰
+     */
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder reactivationCount = new LongAdder();
+    /**
+     * 第一次淘汰时创建，保留的号段个数为当时maxCacheSize的两倍，每个号段约64字节，远小于一个Sequence对象
+     */
+    private volatile EvictedRangeTable evictedRanges;
+
+    /**
+     * 时钟指针，只在持有本对象锁时访问
+     */
+    private Iterator<Sequence> hand;
+
+    public void setCacheSize(int _maxCacheSize, int _evictionAnalysisThreshold, int _survivorSizeAfterEviction) {
+        if (!(_maxCacheSize > _evictionAnalysisThreshold && _evictionAnalysisThreshold > _survivorSizeAfterEviction && _survivorSizeAfterEviction > 0)) {
+            throw new IllegalArgumentException("缓存参数关系应该为_maxCacheSize>_evictionAnalysisThreshold>_survivorSizeAfterEviction>0");
+        }
+        LOGGER.info(String.format(
+                "设置缓存大小,maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d,原大小为：maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d",
+                _maxCacheSize, _evictionAnalysisThreshold, _survivorSizeAfterEviction, maxCacheSize, evictionAnalysisThreshold, survivorSizeAfterEviction));
+        maxCacheSize = _maxCacheSize;
+        evictionAnalysisThreshold = _evictionAnalysisThreshold;
+        survivorSizeAfterEviction = _survivorSizeAfterEviction;
+    }
+
+    /**
+     * 获取序列并记录命中率和访问标记
+     */
+    Sequence get(String seqName) {
+        Sequence sequence = sequences.get(seqName);
+        if (sequence == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        if (!sequence.isReferenced() && sequences.size() > evictionAnalysisThreshold) {
+            sequence.setReferenced(true);
+        }
+        return sequence;
+    }
+
+    /**
+     * 获取序列，不记录命中率和访问标记
+     */
+    Sequence peek(String seqName) {
+        return sequences.get(seqName);
+    }
+
+    /**
+     * 放入序列，缓存已满时先淘汰不活跃的序列
+     */
+    void put(String seqName, Sequence sequence) {
+        if (sequences.size() >= maxCacheSize) {
+            evict();
+        }
+        sequence.setReferenced(true);
+        sequences.put(seqName, sequence);
+    }
+
+    /**
+     * 取回淘汰时保留的所有号段，同时把号段所属序列的配置项写入sequence，没有保留时返回空列表
+     */
+    List<SequenceSegment> takeEvicted(String seqName, Sequence sequence) {
+        EvictedRangeTable table = evictedRanges;
+        List<SequenceSegment> segments = table == null ? new ArrayList<SequenceSegment>() : table.take(seqName, sequence);
+        if (!segments.isEmpty()) {
+            reactivationCount.increment();
+        }
+        return segments;
+    }
+
+    /**
+     * 淘汰之后才从数据库取回的号段放入保留表，调用方持有sequence的refillLock
+     */
+    void retainLate(Sequence sequence, Collection<SequenceSegment> segments) {
+        EvictedRangeTable table = evictedRanges;
+        int dropped = 0;
+        for (SequenceSegment segment : segments) {
+            dropped += table.put(sequence.getName(), segment.getStart(), segment.getEnd(), sequence);
+        }
+        if (dropped > 0) {
+            LOGGER.debug(String.format("淘汰保留表已满,%s覆盖了%d个保留的号段", sequence.getName(), dropped));
+        }
+    }
+
+    /**
+     * 取走所有淘汰时保留的号段，每个元素为{current, end}，与seqNames一一对应
+     */
+    List<long[]> drainEvicted(List<String> seqNames) {
+        EvictedRangeTable table = evictedRanges;
+        return table == null ? new ArrayList<long[]>() : table.drain(seqNames);
+    }
+
+    Collection<Sequence> values() {
+        return sequences.values();
+    }
+
+    public int size() {
+        return sequences.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 从淘汰保留的号段重新加载序列的次数
+     */
+    public long getReactivationCount() {
+        return reactivationCount.sum();
+    }
+
+    /**
+     * 淘汰后保留的号段个数
+     */
+    public int getEvictedRangeCount() {
+        EvictedRangeTable table = evictedRanges;
+        return table == null ? 0 : table.size();
+    }
+
+    private void evict() {
+        evictLock.lock();
+        try {
+            if (sequences.size() < maxCacheSize) {
+                return;
+            }
+            long start = System.nanoTime();
+            int evicted = 0;
+            // 最多扫描两圈：第一圈清除访问标记，第二圈一定能淘汰到目标个数
+            int budget = sequences.size() * 2;
+            while (sequences.size() > survivorSizeAfterEviction && budget-- > 0) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = sequences.values().iterator();
+                    if (!hand.hasNext()) {
+                        break;
+                    }
+                }
+                Sequence sequence = hand.next();
+                if (sequence.isReferenced()) {
+                    sequence.setReferenced(false);
+                } else if (retain(sequence)) {
+                    hand.remove();
+                    evicted++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            evictionCount.add(evicted);
+            SequenceMetrics.recordEviction(evicted, nanos);
+            LOGGER.info(String.format("序列缓存淘汰%d个,剩余%d个,耗时%dms,累计命中:%d,未命中:%d,淘汰:%d,保留号段:%d", evicted, sequences.size(),
+                    TimeUnit.NANOSECONDS.toMillis(nanos), getHitCount(), getMissCount(), getEvictionCount(), getEvictedRangeCount()));
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    /**
+     * 标记序列已淘汰，取走剩余的号段和号段环放入保留表；仍持有该序列的取号线程会发现号段已用完，改用缓存中重新加载的序列，不会重复
+     * <p/>
+     * 持有switchLock和refillLock，和切换号段、后台预取互斥；拿不到锁说明序列正在从数据库取号段，本轮不淘汰
+     *
+     * @return 是否可以从缓存中移除
+     */
+    private boolean retain(Sequence sequence) {
+        if (sequence.getShards() > 0) {
+            return true;
+        }
+        if (!sequence.getSwitchLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (!sequence.getRefillLock().tryLock()) {
+                return false;
+            }
+            try {
+                EvictedRangeTable table = evictedRanges;
+                if (table == null) {
+                    table = new EvictedRangeTable(Math.max(MIN_EVICTED_RANGES, maxCacheSize * 2));
+                    evictedRanges = table;
+                }
+                sequence.setEvicted(true);
+                List<SequenceSegment> segments = new ArrayList<SequenceSegment>();
+                SequenceSegment rest = sequence.seal();
+                if (rest != null) {
+                    segments.add(rest);
+                }
+                SequenceSegment reserved;
+                while ((reserved = sequence.getReserveRing().poll()) != null) {
+                    segments.add(reserved);
+                }
+                retainLate(sequence, segments);
+                return true;
+            } finally {
+                sequence.getRefillLock().unlock();
+            }
+        } finally {
+            sequence.getSwitchLock().unlock();
+        }
+    }
+}
@@ -1,24 +1,48 @@
 package cn.bridgeli.middleware.sequence.core;
 
+import cn.bridgeli.middleware.sequence.dao.ExecutorSequenceTransaction;
+import cn.bridgeli.middleware.sequence.dao.JdbcSequenceDAO;
+import cn.bridgeli.middleware.sequence.dao.MappedFileSequenceDAO;
+import cn.bridgeli.middleware.sequence.dao.MySQLDialect;
+import cn.bridgeli.middleware.sequence.dao.NativeSequenceDAO;
+import cn.bridgeli.middleware.sequence.dao.NativeSequenceDialect;
 import cn.bridgeli.middleware.sequence.dao.SequenceDAO;
-import cn.bridgeli.middleware.sequence.dao.SequenceDAOImpl;
-import lombok.Setter;
-import org.mybatis.spring.SqlSessionFactoryBean;
+import cn.bridgeli.middleware.sequence.dao.SequenceDialect;
+import cn.bridgeli.middleware.sequence.dao.SequenceTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.InitializingBean;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.dao.DuplicateKeyException;
-import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.springframework.transaction.TransactionStatus;
-import org.springframework.transaction.support.TransactionCallback;
-import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 分两种模式，
@@ -27,175 +51,1418 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * @author bridgeli
  */
-public class SequenceContext implements InitializingBean {
+public class SequenceContext {
 
     private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
 
     private static final String DYNAMIC_MODE_PREFIX = "_dynamic_";
+    private static final String MBEAN_NAME = "cn.bridgeli.middleware.sequence:type=SequenceContext";
     private static SequenceDAO sequenceDAO;
-    private static TransactionTemplate transactionTemplate;
+    private static volatile SequenceTransaction transaction;
+    /**
+     * 专用数据库线程池的线程数和调用方等待超时时间，线程数为0时在调用方线程中执行事务
+     */
+    private static ExecutorSequenceTransaction dbExecutor;
+    private static int dbThreads;
+    private static long dbTimeoutMillis;
+
+    private static AtomicBoolean initialized = new AtomicBoolean(false);
+    private static AtomicBoolean shutdown = new AtomicBoolean(false);
+    /**
+     * SequenceDAO和事务设置好后完成，异步取号在此之前不阻塞调用线程，初始化完成后再执行
+     */
+    private static volatile CompletableFuture<Void> initializedFuture = new CompletableFuture<Void>();
+
+    private static final int ASYNC_THREADS = 4;
+    /**
+     * 异步取号在本地号段用完、需要访问数据库时使用的线程池
+     */
+    private static volatile Executor asyncExecutor;
+    private static SequenceCache cache = new SequenceCache();
+    /**
+     * 正在初始化的序列，同一个序列的并发首次调用共用一次数据库事务，不同序列之间并行初始化
+     */
+    private static ConcurrentMap<String, FutureTask<Sequence>> initializing = new ConcurrentHashMap<String, FutureTask<Sequence>>();
+
+    private static final int PREFETCH_THREADS = 2;
+
+    /**
+     * 双buffer预取阈值，当前号段剩余序号占号段长度的比例不高于该值时，后台线程提前从数据库取下一个号段
+     * <p>
+     * 取值范围[0, 1)，默认0即关闭预取，号段用完时同步访问数据库
+     */
+    private static volatile double prefetchThreshold = 0;
+    private static ExecutorService prefetchExecutor;
+
+    /**
+     * 号段环的深度范围，以及判定数据库取号段变慢的耗时，见setReserveRing
+     */
+    private static volatile int minRingDepth = 1;
+    private static volatile int maxRingDepth = 1;
+    private static volatile long slowRefillNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    /**
+     * 号段环持续正常多久后深度减一
+     */
+    private static final long RING_SHRINK_INTERVAL = 60 * 1000L;
+    /**
+     * 预取失败后间隔多久再重试
+     */
+    private static final long PREFETCH_RETRY_INTERVAL = 1000L;
+
+    /**
+     * 取号段时是否先尝试单条语句领取号段，关闭后每次都先select for update再update
+     */
+    private static volatile boolean atomicClaim = true;
+
+    /**
+     * 合并多个序号同时发生的取号段请求，为null时每个序号单独开事务
+     */
+    private static volatile RefillCoordinator refillCoordinator;
+
+    private static final long DEFAULT_TARGET_REFILL_INTERVAL = 60 * 1000L;
+
+    /**
+     * 自适应号段长度配置，key为序列全名，value为{minCount, maxCount}
+     * <p>
+     * 号段长度在[minCount, maxCount]之间，从数据库取号段的间隔小于targetRefillInterval时加倍，大于两倍targetRefillInterval时减半
+     */
+    private static Map<String, long[]> adaptiveCounts = new ConcurrentHashMap<String, long[]>();
+    private static volatile long targetRefillInterval = DEFAULT_TARGET_REFILL_INTERVAL;
+
+    /**
+     * 宽松顺序模式配置，key为序列全名，value为每个线程一次取走的序号个数
+     */
+    private static Map<String, Integer> relaxedChunks = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * 分片行模式配置，key为序列全名，value为数据库行数
+     */
+    private static Map<String, Integer> shardedRows = new ConcurrentHashMap<String, Integer>();
+    /**
+     * 本jvm的标识pid@host，用于计算优先使用的分片行
+     */
+    private static final String JVM_NAME = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * 初始化时预热的fixed序号，名称列表和前缀二者取并集，都为空时不预热
+     */
+    private static volatile Collection<String> warmUpSeqNames = Collections.emptyList();
+    private static volatile String warmUpPrefix;
+    private static volatile int warmUpBatchSize = 200;
+    private static volatile int warmUpThreads = 4;
+
+    /**
+     * 不同序列的缓存大小 maxCacheSize 缓存最大值 evictionAnalysisThreshold 缓存个数超过该值开始记录序列的访问标记 survivorSizeAfterEviction 缓存个数达到最大值后，淘汰不活跃的序列，存留个数
+     * <p>
+     * 三者关系为 maxCacheSize > evictionAnalysisThreshold > survivorSizeAfterEviction > 0
+     * <p>
+     * 一般不用设置
+     */
+    public static void setCacheSize(int _maxCacheSize, int _evictionAnalysisThreshold, int _survivorSizeAfterEviction) {
+        cache.setCacheSize(_maxCacheSize, _evictionAnalysisThreshold, _survivorSizeAfterEviction);
+    }
+
+    /**
+     * 序列缓存，可获取缓存个数和命中、未命中、淘汰次数
+     */
+    public static SequenceCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 开启双buffer预取模式，例如0.2表示当前号段剩余不足20%时后台预取下一个号段，0表示关闭
+     */
+    public static synchronized void setPrefetchThreshold(double _prefetchThreshold) {
+        if (!(_prefetchThreshold >= 0 && _prefetchThreshold < 1)) {
+            throw new IllegalArgumentException("预取阈值应该为0<=_prefetchThreshold<1");
+        }
+        if (_prefetchThreshold > 0 && prefetchExecutor == null) {
+            prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "global-sequence-prefetch-" + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        LOGGER.info(String.format("设置预取阈值,prefetchThreshold:%s,原阈值为：%s", _prefetchThreshold, prefetchThreshold));
+        prefetchThreshold = _prefetchThreshold;
+    }
+
+    /**
+     * 设置每个序号预取的号段环深度，需要先通过setPrefetchThreshold开启预取
+     * <p>
+     * 平时保持minDepth个预取好的号段，单次取号段超过slowRefillMillis或者失败时深度加倍直到maxDepth，持续正常后逐步减回minDepth；
+     * 数据库抖动或者主从切换期间，取号线程继续从预取好的号段取号，可以支撑的时间见SequenceMonitor#getTimeToEmptyMillis
+     */
+    public static void setReserveRing(int minDepth, int maxDepth, long slowRefillMillis) {
+        isTrue(prefetchThreshold > 0, "需要先通过setPrefetchThreshold开启预取");
+        isTrue(minDepth > 0 && maxDepth >= minDepth, "号段环深度应该为0<minDepth<=maxDepth");
+        isTrue(slowRefillMillis > 0, "取号段慢的阈值为负或0");
+        LOGGER.info(String.format("设置号段环,minDepth:%d,maxDepth:%d,slowRefillMillis:%d", minDepth, maxDepth, slowRefillMillis));
+        minRingDepth = minDepth;
+        maxRingDepth = maxDepth;
+        slowRefillNanos = TimeUnit.MILLISECONDS.toNanos(slowRefillMillis);
+        for (Sequence sequence : cache.values()) {
+            sequence.setRingDepthRange(minDepth, maxDepth);
+        }
+    }
+
+    /**
+     * 设置取号段时是否先尝试单条语句领取号段，默认开启
+     * <p>
+     * 开启后号段范围不变，但序号配置项(步长、count等)的修改要等到下一次加锁查询取号段时才生效
+     */
+    public static void setAtomicClaim(boolean _atomicClaim) {
+        LOGGER.info(String.format("设置单条语句领取号段,atomicClaim:%s,原值为：%s", _atomicClaim, atomicClaim));
+        atomicClaim = _atomicClaim;
+    }
+
+    /**
+     * 所有序号数据库访问在专用线程池中执行，threads为同时占用的数据库连接数上限，调用方最多等待timeoutMillis；threads为0时关闭
+     * <p>
+     * 调用方已经在事务中时，序号事务不再和调用方竞争同一个连接池的连接造成饥饿死锁，序号组件的数据库并发也有了上限；
+     * 需要完全隔离时可以再给序号组件配置单独的DataSource
+     */
+    public static synchronized void setDBExecutor(int threads, long timeoutMillis) {
+        isTrue(threads >= 0, "数据库线程数为负");
+        isTrue(threads == 0 || timeoutMillis > 0, "等待超时时间为负或0");
+        LOGGER.info(String.format("设置序号数据库线程池,threads:%d,timeoutMillis:%d,原线程数为：%d", threads, timeoutMillis, dbThreads));
+        dbThreads = threads;
+        dbTimeoutMillis = timeoutMillis;
+        if (transaction != null) {
+            SequenceTransaction raw = transaction;
+            if (raw == dbExecutor) {
+                dbExecutor.shutdown();
+                raw = dbExecutor.getDelegate();
+            }
+            transaction = withDBExecutor(raw);
+        }
+    }
+
+    /**
+     * 按setDBExecutor的配置包装事务
+     */
+    private static synchronized SequenceTransaction withDBExecutor(SequenceTransaction _transaction) {
+        if (dbThreads == 0) {
+            dbExecutor = null;
+            return _transaction;
+        }
+        dbExecutor = new ExecutorSequenceTransaction(_transaction, dbThreads, dbTimeoutMillis);
+        return dbExecutor;
+    }
+
+    /**
+     * 开启取号段合并(group commit)：windowMicros微秒内或者攒够maxBatch个序号的取号段请求在一个事务中批量完成，windowMicros为0时关闭
+     * <p>
+     * 适用于大量不同序号同时用完号段、数据库连接池吃紧的场景；合并的批次使用加锁批量查询，不走单条语句领取号段
+     */
+    public static void setGroupCommit(long windowMicros, int maxBatch) {
+        isTrue(windowMicros >= 0, "合并等待时间为负");
+        isTrue(maxBatch > 0, "合并批量大小为负或0");
+        LOGGER.info(String.format("设置取号段合并,windowMicros:%d,maxBatch:%d", windowMicros, maxBatch));
+        refillCoordinator = windowMicros == 0 ? null : new RefillCoordinator(windowMicros, maxBatch);
+    }
+
+    /**
+     * 设置期望的从数据库取号段的时间间隔(毫秒)，对开启自适应号段长度的序列生效
+     */
+    public static void setTargetRefillInterval(long _targetRefillInterval) {
+        isTrue(_targetRefillInterval > 0, "取号段间隔为负或0");
+        LOGGER.info(String.format("设置取号段间隔,targetRefillInterval:%d,原间隔为：%d", _targetRefillInterval, targetRefillInterval));
+        targetRefillInterval = _targetRefillInterval;
+    }
+
+    /**
+     * 为序列开启自适应号段长度，号段长度根据取号段的频率在[minCount, maxCount]之间调整，不再固定为数据库中的count
+     *
+     * @param seqName  序列名
+     * @param dynamic  是否为dynamic模式的序列
+     * @param minCount 大于0，号段长度下限
+     * @param maxCount 不小于minCount，号段长度上限
+     */
+    public static void setAdaptiveCount(String seqName, boolean dynamic, long minCount, long maxCount) {
+        notNull(seqName, "参数seqName不能为空！");
+        isTrue(minCount > 0, "号段长度下限为负或0");
+        isTrue(maxCount >= minCount, "号段长度上限小于下限");
+        String seqFullName = getSeqName(seqName, dynamic);
+        adaptiveCounts.put(seqFullName, new long[]{minCount, maxCount});
+        LOGGER.info(String.format("设置自适应号段长度,seqName:%s,minCount:%d,maxCount:%d", seqFullName, minCount, maxCount));
+    }
+
+    /**
+     * 每次取号段前同步自适应配置，保证修改配置后对已缓存的序列及时生效
+     */
+    private static void applyAdaptiveCount(Sequence sequence) {
+        long[] bounds = adaptiveCounts.get(sequence.getName());
+        if (bounds != null) {
+            sequence.setMinCount(bounds[0]);
+            sequence.setMaxCount(bounds[1]);
+            sequence.setTargetRefillInterval(targetRefillInterval);
+        }
+    }
+
+    /**
+     * 为序列开启宽松顺序模式，每个线程一次从号段取走chunk个序号，在自己的子号段内不使用CAS取号
+     * <p>
+     * 序号仍然全局唯一，但只保证同一个线程取到的序号递增，不同线程之间不保证顺序，适用于单个序列竞争激烈的场景
+     *
+     * @param seqName 序列名
+     * @param dynamic 是否为dynamic模式的序列
+     * @param chunk   大于0，每个线程一次取走的序号个数，0表示关闭
+     */
+    public static void setRelaxedOrdering(String seqName, boolean dynamic, int chunk) {
+        notNull(seqName, "参数seqName不能为空！");
+        isTrue(chunk >= 0, "子号段长度为负");
+        String seqFullName = getSeqName(seqName, dynamic);
+        if (chunk > 0) {
+            relaxedChunks.put(seqFullName, chunk);
+        } else {
+            relaxedChunks.remove(seqFullName);
+        }
+        Sequence sequence = cache.peek(seqFullName);
+        if (sequence != null) {
+            sequence.setRelaxedChunk(chunk);
+        }
+        LOGGER.info(String.format("设置宽松顺序模式,seqName:%s,chunk:%d", seqFullName, chunk));
+    }
+
+    /**
+     * 为序列开启分片行模式，一个逻辑序列由数据库中shards行name#0..name#shards-1共同承担，每个jvm按本机标识优先使用其中一行，
+     * 该行用完或者访问失败时依次使用其他行，取号段慢时下次换到下一行，单行的锁竞争降为原来的1/shards
+     * <p>
+     * 第i行的min和current为逻辑min+i*step，step为逻辑step*shards，各行序号互不重叠，但不同jvm之间不再保证大致递增；
+     * dynamic模式下首次使用时自动插入所有行，fixed模式下需要事先按上述规则插入各行。需要在序列首次使用前设置，已加载的序列不受影响
+     *
+     * @param seqName 序列名
+     * @param dynamic 是否为dynamic模式的序列
+     * @param shards  数据库行数，不大于1表示关闭
+     */
+    public static void setShardedRows(String seqName, boolean dynamic, int shards) {
+        notNull(seqName, "参数seqName不能为空！");
+        isTrue(shards >= 0, "分片行数为负");
+        String seqFullName = getSeqName(seqName, dynamic);
+        if (shards > 1) {
+            shardedRows.put(seqFullName, shards);
+        } else {
+            shardedRows.remove(seqFullName);
+        }
+        if (cache.peek(seqFullName) != null) {
+            LOGGER.warn(String.format("%s已经加载,分片行配置在重新加载后生效", seqFullName));
+        }
+        LOGGER.info(String.format("设置分片行模式,seqName:%s,shards:%d", seqFullName, shards));
+    }
+
+    /**
+     * 设置初始化时预热的fixed序号，在initialize时一次性从数据库批量取好号段放进缓存，服务接入流量后不再逐个懒加载
+     *
+     * @param seqNames 序号名称，可以为空
+     * @param prefix   序号名称前缀，从数据库中查出所有该前缀的序号，可以为空
+     */
+    public static void setWarmUp(Collection<String> seqNames, String prefix) {
+        LOGGER.info(String.format("设置预热序号,seqNames:%s,prefix:%s", seqNames, prefix));
+        warmUpSeqNames = seqNames == null ? Collections.<String>emptyList() : new ArrayList<String>(seqNames);
+        warmUpPrefix = prefix;
+    }
+
+    /**
+     * 设置预热时每条批量语句包含的序号个数和并行预热的线程数
+     */
+    public static void setWarmUpParallelism(int batchSize, int threads) {
+        isTrue(batchSize > 0, "预热批量大小为负或0");
+        isTrue(threads > 0, "预热线程数为负或0");
+        warmUpBatchSize = batchSize;
+        warmUpThreads = threads;
+    }
+
+    /**
+     * 注册JMX监控，ObjectName为cn.bridgeli.middleware.sequence:type=SequenceContext，重复注册时忽略
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new SequenceMonitor(cache), name);
+                LOGGER.info("注册全局序列号JMX监控：" + MBEAN_NAME);
+            }
+        } catch (Exception e) {
+            throw new SequenceException("注册全局序列号JMX监控失败", e);
+        }
+    }
+
+    /**
+     * 使用原生JDBC的JdbcSequenceDAO初始化，不需要spring和mybatis；spring中可以配置SpringSequenceContext
+     */
+    public static boolean initialize(DataSource dataSource) throws Exception {
+        return initialize(dataSource, new MySQLDialect());
+    }
+
+    /**
+     * 兼容原来的spring配置：bean的class为SequenceContext并注入dataSource，注入时即使用原生JDBC初始化，不依赖spring接口
+     *
+     * @deprecated 改为配置SpringSequenceContext，容器关闭时还会把没用完的号段归还数据库，见README
+     */
+    @Deprecated
+    public void setDataSource(DataSource dataSource) throws Exception {
+        initialize(dataSource);
+    }
+
+    /**
+     * 使用指定方言的sequence表初始化，例如PostgreSQL、H2上使用StandardDialect
+     */
+    public static boolean initialize(DataSource dataSource, SequenceDialect dialect) {
+        notNull(dataSource, "参数dataSource不能为空！");
+        notNull(dialect, "参数dialect不能为空！");
+        JdbcSequenceDAO jdbcSequenceDAO = new JdbcSequenceDAO(dataSource, dialect);
+        return initialize(jdbcSequenceDAO, jdbcSequenceDAO, dataSource);
+    }
+
+    /**
+     * 使用数据库原生序列初始化，一次nextval领取一个号段，不需要sequence表、行锁和事务，限制见NativeSequenceDAO
+     */
+    public static boolean initialize(DataSource dataSource, NativeSequenceDialect dialect) {
+        notNull(dataSource, "参数dataSource不能为空！");
+        notNull(dialect, "参数dialect不能为空！");
+        NativeSequenceDAO nativeSequenceDAO = new NativeSequenceDAO(dataSource, dialect);
+        return initialize(nativeSequenceDAO, nativeSequenceDAO, dataSource);
+    }
+
+    /**
+     * 使用本地的内存映射文件初始化，不需要数据库，用于单机部署；文件不存在时新建，shutdown时关闭文件
+     */
+    public static boolean initialize(File file) {
+        notNull(file, "参数file不能为空！");
+        if (initialized.get()) {
+            logIgnored(file);
+            return false;
+        }
+        MappedFileSequenceDAO mappedFileSequenceDAO = new MappedFileSequenceDAO(file);
+        if (!initialize(mappedFileSequenceDAO, mappedFileSequenceDAO, file)) {
+            mappedFileSequenceDAO.close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 使用指定的SequenceDAO和事务初始化，用于自定义的序号存储
+     */
+    public static boolean initialize(SequenceDAO _sequenceDAO, SequenceTransaction _transaction) {
+        return initialize(_sequenceDAO, _transaction, _sequenceDAO);
+    }
+
+    private static boolean initialize(SequenceDAO _sequenceDAO, SequenceTransaction _transaction, Object source) {
+        notNull(_sequenceDAO, "参数sequenceDAO不能为空！");
+        notNull(_transaction, "参数transaction不能为空！");
+
+        if (initialized.compareAndSet(false, true)) {
+            transaction = withDBExecutor(_transaction);
+            sequenceDAO = _sequenceDAO;
+            logInitialized(source);
+            initializedFuture.complete(null);
+            warmUpIfNecessary();
+            return true;
+        } else {
+            logIgnored(source);
+            return false;
+        }
+    }
+
+    private static void logInitialized(Object source) {
+        LOGGER.info(String.format("全局序列号生成组件初始化完成！DataSource为:%s,maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d", source,
+                cache.getMaxCacheSize(), cache.getEvictionAnalysisThreshold(), cache.getSurvivorSizeAfterEviction()));
+    }
+
+    private static void logIgnored(Object source) {
+        LOGGER.warn(
+                String.format("全局序列号生成组件已经初始化,忽略本次初始化，忽略本次参数如下：DataSource为:%s,maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d",
+                        source, cache.getMaxCacheSize(), cache.getEvictionAnalysisThreshold(), cache.getSurvivorSizeAfterEviction()));
+    }
+
+    /**
+     * 初始化时按setWarmUp的配置预热，预热失败只记录日志，未预热的序号仍然在首次使用时懒加载
+     */
+    private static void warmUpIfNecessary() {
+        Collection<String> seqNames = warmUpSeqNames;
+        String prefix = warmUpPrefix;
+        if (seqNames.isEmpty() && (prefix == null || prefix.length() == 0)) {
+            return;
+        }
+        try {
+            List<String> names = new ArrayList<String>(seqNames);
+            if (prefix != null && prefix.length() > 0) {
+                final String _prefix = prefix;
+                names.addAll(transaction.execute(new SequenceTransaction.Callback<List<String>>() {
+                    @Override
+                    public List<String> doInTransaction() {
+                        return sequenceDAO.queryNamesByPrefix(_prefix);
+                    }
+                }));
+            }
+            warmUp(names);
+        } catch (RuntimeException e) {
+            LOGGER.error("全局序列号预热失败，未预热的序号将在首次使用时加载", e);
+        }
+    }
+
+    /**
+     * 预热fixed序号：按名称排序分批，每批一条语句加锁查询、一条语句更新，多批在有界线程池中并行，全部完成后返回
+     * <p>
+     * 已经在缓存中的序号跳过，数据库中不存在的序号记录警告后跳过
+     *
+     * @return 本次预热放进缓存的序号个数
+     */
+    public static int warmUp(Collection<String> seqNames) {
+        notNull(seqNames, "参数seqNames不能为空！");
+        awaitInitialized();
+        final List<String> pending = new ArrayList<String>();
+        int loaded = 0;
+        for (String seqName : new TreeSet<String>(seqNames)) {
+            String logicalName = logicalName(seqName);
+            if (cache.peek(logicalName) != null) {
+                continue;
+            }
+            if (shardedRows.containsKey(logicalName)) {
+                // 分片行需要逐行尝试，不参与批量预热
+                initSequence(logicalName, false, 0, 0, 0, 0, false);
+                loaded++;
+            } else {
+                pending.add(seqName);
+            }
+        }
+        if (pending.isEmpty()) {
+            return loaded;
+        }
+        if (cache.size() + pending.size() > cache.getMaxCacheSize()) {
+            LOGGER.warn(String.format("预热序号个数%d超过缓存容量%d，部分序号会被淘汰", pending.size(), cache.getMaxCacheSize()));
+        }
+        long start = System.currentTimeMillis();
+        int batchSize = warmUpBatchSize;
+        int batches = (pending.size() + batchSize - 1) / batchSize;
+        int threads = Math.min(warmUpThreads, batches);
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "global-sequence-warmup-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>(batches);
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                final List<String> batch = new ArrayList<String>(pending.subList(from, Math.min(from + batchSize, pending.size())));
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return warmUpBatch(batch);
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                try {
+                    loaded += future.get();
+                } catch (ExecutionException e) {
+                    LOGGER.error("全局序列号批量预热失败", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SequenceException("等待序号预热被中断", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info(String.format("全局序列号预热完成，预热%d个，共%d个，耗时%dms", loaded, pending.size(), System.currentTimeMillis() - start));
+        return loaded;
+    }
+
+    private static int warmUpBatch(final List<String> batch) {
+        checkNotShutdown();
+        long start = System.nanoTime();
+        List<Sequence> sequences = transaction.execute(new SequenceTransaction.Callback<List<Sequence>>() {
+            @Override
+            public List<Sequence> doInTransaction() {
+                List<Sequence> seqsFromDB = sequenceDAO.queryBySeqNamesForUpdate(batch);
+                List<Sequence> seqs = new ArrayList<Sequence>(seqsFromDB.size());
+                Map<String, Long> currents = new HashMap<String, Long>();
+                for (Sequence seqFromDB : seqsFromDB) {
+                    Sequence seq = newSequence(seqFromDB.getName(), seqFromDB);
+                    currents.put(seq.getName(), seq.getMax());
+                    seqs.add(seq);
+                }
+                // 本地最大值更新回数据库等待其他客户端获取下一段序号范围
+                sequenceDAO.updateBatch(currents);
+                return seqs;
+            }
+        });
+        long elapsed = sequences.isEmpty() ? 0 : (System.nanoTime() - start) / sequences.size();
+        int loaded = 0;
+        for (Sequence sequence : sequences) {
+            SequenceMetrics.recordInit(sequence.getName(), elapsed);
+            sequence.setLastUpdate(System.currentTimeMillis());
+            // 预热期间已经被懒加载的序号保留原对象，本次取到的号段作废
+            if (cache.peek(sequence.getName()) == null) {
+                cache.put(sequence.getName(), sequence);
+                loaded++;
+            }
+        }
+        if (sequences.size() < batch.size()) {
+            LOGGER.warn(String.format("预热的%d个序号中有%d个在数据库中不存在", batch.size(), batch.size() - sequences.size()));
+        }
+        return loaded;
+    }
+
+    /**
+     * 注册jvm关闭钩子，关闭时调用shutdown归还没用完的号段；spring中由SpringSequenceContext在容器关闭时调用，不需要注册
+     */
+    public static void registerShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        }, "global-sequence-shutdown"));
+    }
+
+    /**
+     * 关闭全局序列号生成组件，之后不再从数据库取号段，并把缓存中每个序号没用完的号段归还数据库
+     * <p>
+     * 归还是一条比较并更新的语句，只有数据库中的current仍然等于本jvm最后取走的号段最大值、即期间没有其他jvm取过号段时才能归还，否则剩余序号作废；
+     * 已经被淘汰出缓存的序号和线程本地已经取走的序号不归还
+     *
+     * @return 归还成功的序号个数
+     */
+    public static int shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return 0;
+        }
+        int returned = 0;
+        if (initialized.get() && transaction != null) {
+            for (Sequence sequence : cache.values()) {
+                try {
+                    if (returnUnused(sequence)) {
+                        returned++;
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.warn(String.format("%s归还未使用的号段失败", sequence.getName()), e);
+                }
+            }
+            returned += returnEvicted();
+        }
+        synchronized (SequenceContext.class) {
+            if (prefetchExecutor != null) {
+                prefetchExecutor.shutdown();
+            }
+            if (dbExecutor != null) {
+                dbExecutor.shutdown();
+            }
+            closeSequenceDAO();
+        }
+        LOGGER.info(String.format("全局序列号生成组件已关闭，归还%d个序号的未使用号段", returned));
+        return returned;
+    }
+
+    /**
+     * 丢弃所有序号缓存和配置，回到未初始化状态，不归还未使用的号段，仅用于测试
+     */
+    static synchronized void reset() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+            prefetchExecutor = null;
+        }
+        if (dbExecutor != null) {
+            dbExecutor.shutdown();
+            dbExecutor = null;
+        }
+        dbThreads = 0;
+        dbTimeoutMillis = 0;
+        closeSequenceDAO();
+        sequenceDAO = null;
+        transaction = null;
+        cache = new SequenceCache();
+        initializing.clear();
+        adaptiveCounts.clear();
+        relaxedChunks.clear();
+        shardedRows.clear();
+        targetRefillInterval = DEFAULT_TARGET_REFILL_INTERVAL;
+        prefetchThreshold = 0;
+        minRingDepth = 1;
+        maxRingDepth = 1;
+        slowRefillNanos = TimeUnit.MILLISECONDS.toNanos(200);
+        atomicClaim = true;
+        refillCoordinator = null;
+        warmUpSeqNames = Collections.<String>emptyList();
+        warmUpPrefix = null;
+        warmUpBatchSize = 200;
+        warmUpThreads = 4;
+        initializedFuture = new CompletableFuture<Void>();
+        shutdown.set(false);
+        initialized.set(false);
+    }
+
+    /**
+     * 本地文件等需要释放的存储在关闭时一起关闭
+     */
+    private static void closeSequenceDAO() {
+        if (sequenceDAO instanceof Closeable) {
+            try {
+                ((Closeable) sequenceDAO).close();
+            } catch (IOException e) {
+                LOGGER.warn("关闭序号存储失败", e);
+            }
+        }
+    }
+
+    /**
+     * 取走本地剩余的号段，数据库中的current仍为本jvm写入的号段最大值时改回剩余号段的起始值
+     * <p>
+     * 从最后一个预取的号段往前，首尾相连的号段一起归还，不相连的更早的号段作废
+     */
+    private static boolean returnUnused(final Sequence sequence) {
+        sequence.getSwitchLock().lock();
+        try {
+            sequence.getRefillLock().lock();
+            try {
+                return returnUnusedLocked(sequence);
+            } finally {
+                sequence.getRefillLock().unlock();
+            }
+        } finally {
+            sequence.getSwitchLock().unlock();
+        }
+    }
+
+    /**
+     * 归还淘汰时保留的号段，同returnUnused，只有数据库中的current仍为号段结束值时才能归还
+     */
+    private static int returnEvicted() {
+        List<String> seqNames = new ArrayList<String>();
+        List<long[]> ranges = cache.drainEvicted(seqNames);
+        int returned = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            final String seqName = seqNames.get(i);
+            final long current = ranges.get(i)[0];
+            final long expect = ranges.get(i)[1];
+            try {
+                int updated = transaction.execute(new SequenceTransaction.Callback<Integer>() {
+                    @Override
+                    public Integer doInTransaction() {
+                        return sequenceDAO.compareAndSetCurrent(seqName, expect, current);
+                    }
+                });
+                if (updated == 1) {
+                    returned++;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn(String.format("%s归还淘汰时保留的号段[%d, %d)失败", seqName, current, expect), e);
+            }
+        }
+        return returned;
+    }
+
+    private static boolean returnUnusedLocked(final Sequence sequence) {
+        List<SequenceSegment> segments = new ArrayList<SequenceSegment>();
+        SequenceSegment rest = sequence.seal();
+        if (rest != null) {
+            segments.add(rest);
+        }
+        SequenceSegment reserved;
+        while ((reserved = sequence.getReserveRing().poll()) != null) {
+            segments.add(reserved);
+        }
+        if (segments.isEmpty()) {
+            return false;
+        }
+        SequenceSegment last = segments.get(segments.size() - 1);
+        final String rowName = last.getRow() != null ? last.getRow() : sequence.getName();
+        int first = segments.size() - 1;
+        while (first > 0 && segments.get(first - 1).getEnd() == segments.get(first).getStart()
+                && rowName.equals(segments.get(first - 1).getRow() != null ? segments.get(first - 1).getRow() : sequence.getName())) {
+            first--;
+        }
+        final long expect = last.getEnd();
+        final long current = segments.get(first).getStart();
+        int updated = transaction.execute(new SequenceTransaction.Callback<Integer>() {
+            @Override
+            public Integer doInTransaction() {
+                return sequenceDAO.compareAndSetCurrent(rowName, expect, current);
+            }
+        });
+        if (updated != 1) {
+            LOGGER.info(String.format("%s数据库中的current已被其他jvm修改,[%d, %d)不再归还", rowName, current, expect));
+            return false;
+        }
+        return true;
+    }
+
+    private static void checkNotShutdown() {
+        if (shutdown.get()) {
+            throw new SequenceException("全局序列号生成组件已关闭");
+        }
+    }
+
+    public static long getNextSeq(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop) {
+        String seqFullName = prepareSequence(seqName, dynamic, min, max, step, count, isLoop);
+        return getSequenceNum(seqFullName);
+    }
+
+    /**
+     * 批量获取size个连续序号，本地号段足够时只做一次CAS，否则最多访问一次数据库
+     * <p>
+     * size超过号段长度时直接从数据库预留一段恰好容纳size个序号的范围，不影响本地号段
+     */
+    public static SequenceRange getNextSeqRange(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop, int size) {
+        isTrue(size > 0, "批量取号个数为负或0");
+        String seqFullName = prepareSequence(seqName, dynamic, min, max, step, count, isLoop);
+        return getSequenceRange(seqFullName, size);
+    }
+
+    /**
+     * 批量获取序号并依次写入ids，写满整个数组
+     */
+    public static void getNextSeqs(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop, long[] ids) {
+        notNull(ids, "参数ids不能为空！");
+        if (ids.length == 0) {
+            return;
+        }
+        getNextSeqRange(seqName, dynamic, min, max, step, count, isLoop, ids.length).fill(ids, 0);
+    }
+
+    /**
+     * 校验参数，等待组件初始化，并保证序列已经加载到本地缓存
+     *
+     * @return 序列全名
+     */
+    private static String prepareSequence(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop) {
+        checkArguments(dynamic, min, max, step, count);
+        awaitInitialized();
+        String seqFullName = getSeqName(seqName, dynamic);
+        if (getSequenceFromCache(seqFullName) == null) {
+            initSequence(seqFullName, dynamic, min, max, step, count, isLoop);
+        }
+        return seqFullName;
+    }
+
+    private static void checkArguments(boolean dynamic, long min, long max, long step, long count) {
+        if (dynamic) {
+            isTrue(min >= 0, "最小值为负");
+            isTrue(max > min, "最大值小于最小值");
+            isTrue(step > 0, "步长为负或0");
+            isTrue(count > 0, "一次性获取个数为负或0");
+        }
+    }
+
+    /**
+     * 获取序号句柄，参数同getNextSeq；句柄可以保存在静态常量中，不等待组件初始化，第一次取号时才加载序列
+     * <p>
+     * 通过句柄取号不再拼接序列全名、查询缓存和校验参数，本地号段有剩余时直接CAS
+     */
+    public static SequenceHandle getHandle(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop) {
+        notNull(seqName, "参数seqName不能为空！");
+        checkArguments(dynamic, min, max, step, count);
+        return new SequenceHandle(getSeqName(seqName, dynamic), dynamic, min, max, step, count, isLoop);
+    }
+
+    static long getSequenceNum(SequenceHandle handle) {
+        Sequence sequence = handle.sequence;
+        if (sequence == null || sequence.getCurrent() >= sequence.getMax()) {
+            sequence = resolve(handle);
+        } else if (!sequence.isReferenced()) {
+            // 不经过缓存查询，自己设置访问标记，避免常用的序列被当作不活跃的淘汰
+            sequence.setReferenced(true);
+        }
+        return getSequenceNum(sequence);
+    }
+
+    static SequenceRange getSequenceRange(SequenceHandle handle, int size) {
+        isTrue(size > 0, "批量取号个数为负或0");
+        Sequence sequence = handle.sequence;
+        if (sequence == null || sequence.remaining() < size) {
+            sequence = resolve(handle);
+        } else if (!sequence.isReferenced()) {
+            sequence.setReferenced(true);
+        }
+        return getSequenceRange(sequence, size);
+    }
+
+    /**
+     * 句柄第一次使用或者本地号段用完时按名称重新解析，每个号段只查询一次缓存：
+     * 缓存中已经是其他实例时改用缓存中的实例，句柄的序列被淘汰后重新加载，淘汰时保留的号段直接取回
+     */
+    private static Sequence resolve(SequenceHandle handle) {
+        String seqName = handle.getSeqName();
+        Sequence cached = getSequenceFromCache(seqName);
+        if (cached == null) {
+            awaitInitialized();
+            cached = initSequence(seqName, handle.isDynamic(), handle.getMin(), handle.getMax(), handle.getStep(), handle.getCount(),
+                    handle.isLoop());
+        }
+        if (!cached.isReferenced()) {
+            cached.setReferenced(true);
+        }
+        handle.sequence = cached;
+        return cached;
+    }
 
-    private static AtomicBoolean initialized = new AtomicBoolean(false);
-    private static Map<String, Sequence> cache = new ConcurrentHashMap<String, Sequence>();
+    /**
+     * 等待SequenceContext被初始化
+     */
+    static void awaitInitialized() {
+        CompletableFuture<Void> future = initializedFuture;
+        while (!future.isDone()) {
+            try {
+                future.get(3, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                LOGGER.warn("等待SequenceContext被spring容器初始化，或者请检查SequenceContext是否被配置为Spring bean.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SequenceException("等待SequenceContext初始化被中断", e);
+            } catch (ExecutionException e) {
+                throw new SequenceException("SequenceContext初始化失败", e.getCause());
+            }
+        }
+    }
 
-    private static final int DEFAULT_MAX_CACHE_SIZE = 50000;
-    private static final int DEFAULT_EVICTION_ANALYSIS_THRESHOLD = 40000;
-    private static final int DEFAULT_SURVIVOR_SIZE_AFTER_EVICTION = 30000;
+    static SequenceDAO getSequenceDAO() {
+        return sequenceDAO;
+    }
 
     /**
-     * 不同序列的缓存大小 maxCacheSize 缓存最大值 evictionAnalysisThreshold 缓存个数超过该值开始记录序列的使用时间 survivorSizeAfterEviction 缓存个数达到最大值后，根据记录序列的最后使用时间排序，清除缓存中最旧序列（即最后使用时间最早），存留个数
-     * <p>
-     * 三者关系为 maxCacheSize > evictionAnalysisThreshold > survivorSizeAfterEviction > 0
+     * 在独立的新事务中执行，供同包内其他使用sequence表的组件使用
+     */
+    static <T> T executeInTransaction(SequenceTransaction.Callback<T> action) {
+        return transaction.execute(action);
+    }
+
+    private static long getSequenceNum(final String seqName) {
+        final Sequence sequence = cache.peek(seqName);
+        if (sequence == null) {
+            throw new SequenceException("序号生成服务未知异常");
+        }
+        return getSequenceNum(sequence);
+    }
+
+    private static long getSequenceNum(final Sequence sequence) {
+        // 本地已经用完需要取数据库取
+        if (sequence.getCurrent() >= sequence.getMax()) {
+            if (sequence.isEvicted()) {
+                return getSequenceNum(reload(sequence));
+            }
+            updateFromDBAndUpdateDB(sequence);
+        }
+        try {
+            long num = sequence.getRelaxedChunk() > 0 ? sequence.getFromLocalRange() : sequence.getCurrentAndIncrementStep();
+            if (prefetchThreshold > 0) {
+                prefetchIfNecessary(sequence);
+            }
+            return num;
+        } catch (CASEqualsException e) {
+            SequenceMetrics.recordCasEquals();
+            return getSequenceNum(sequence);
+        }
+    }
+
+    private static SequenceRange getSequenceRange(final String seqName, int size) {
+        final Sequence sequence = cache.peek(seqName);
+        if (sequence == null) {
+            throw new SequenceException("序号生成服务未知异常");
+        }
+        return getSequenceRange(sequence, size);
+    }
+
+    private static SequenceRange getSequenceRange(final Sequence sequence, int size) {
+        long segmentCount = sequence.getSegmentCount() > 0 ? sequence.getSegmentCount() : sequence.getCount();
+        if (size <= segmentCount) {
+            // 本地号段剩余不足时丢弃剩余部分，换一个新号段
+            if (sequence.remaining() < size) {
+                if (sequence.isEvicted()) {
+                    return getSequenceRange(reload(sequence), size);
+                }
+                updateFromDBAndUpdateDB(sequence, size);
+            }
+            try {
+                long step = sequence.getStep();
+                long start = sequence.getCurrentAndIncrementSteps(size);
+                if (prefetchThreshold > 0) {
+                    prefetchIfNecessary(sequence);
+                }
+                return new SequenceRange(start, size, step);
+            } catch (CASEqualsException e) {
+                // 新号段被并发取走，直接从数据库预留
+            }
+        }
+        return reserveFromDBAndUpdateDB(sequence, size);
+    }
+
+    /**
+     * 设置异步取号访问数据库时使用的线程池，默认为4个守护线程的线程池
+     */
+    public static void setAsyncExecutor(Executor executor) {
+        notNull(executor, "参数executor不能为空！");
+        asyncExecutor = executor;
+    }
+
+    /**
+     * 异步获取下一个序号，不阻塞调用线程
      * <p>
-     * 一般不用设置
+     * 本地号段有剩余时直接返回已完成的future；组件还没有初始化、序号还没有加载或者本地号段用完需要访问数据库时，在异步线程池中取号，完成后回调
      */
-    private static int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
-    private static int evictionAnalysisThreshold = DEFAULT_EVICTION_ANALYSIS_THRESHOLD;
-    private static int survivorSizeAfterEviction = DEFAULT_SURVIVOR_SIZE_AFTER_EVICTION;
+    public static CompletableFuture<Long> getNextSeqAsync(final String seqName, final boolean dynamic, final long min, final long max, final long step,
+                                                          final long count, final boolean isLoop) {
+        if (initializedFuture.isDone() && seqName != null) {
+            Sequence sequence = getSequenceFromCache(getSeqName(seqName, dynamic));
+            if (sequence != null) {
+                Long num = tryGetSequenceNum(sequence);
+                if (num != null) {
+                    return CompletableFuture.completedFuture(num);
+                }
+            }
+        }
+        return initializedFuture.thenApplyAsync(v -> getNextSeq(seqName, dynamic, min, max, step, count, isLoop), getAsyncExecutor());
+    }
 
-    @Setter
-    private DataSource dataSource;
+    /**
+     * 异步批量获取size个连续序号，不阻塞调用线程，同{@link #getNextSeqAsync}
+     */
+    public static CompletableFuture<SequenceRange> getNextSeqRangeAsync(final String seqName, final boolean dynamic, final long min, final long max,
+                                                                        final long step, final long count, final boolean isLoop, final int size) {
+        if (initializedFuture.isDone() && seqName != null && size > 0) {
+            Sequence sequence = getSequenceFromCache(getSeqName(seqName, dynamic));
+            if (sequence != null && sequence.remaining() >= size) {
+                try {
+                    long seqStep = sequence.getStep();
+                    long start = sequence.getCurrentAndIncrementSteps(size);
+                    if (prefetchThreshold > 0) {
+                        prefetchIfNecessary(sequence);
+                    }
+                    return CompletableFuture.completedFuture(new SequenceRange(start, size, seqStep));
+                } catch (CASEqualsException e) {
+                    // 并发取走了，交给异步线程池
+                }
+            }
+        }
+        return initializedFuture.thenApplyAsync(v -> getNextSeqRange(seqName, dynamic, min, max, step, count, isLoop, size), getAsyncExecutor());
+    }
 
-    @Override
-    public void afterPropertiesSet() throws Exception {
-        initialize(dataSource);
+    /**
+     * 只从本地号段取号，本地号段用完时返回null，不访问数据库也不等待锁
+     */
+    private static Long tryGetSequenceNum(Sequence sequence) {
+        if (sequence.getCurrent() >= sequence.getMax()) {
+            return null;
+        }
+        try {
+            long num = sequence.getRelaxedChunk() > 0 ? sequence.getFromLocalRange() : sequence.getCurrentAndIncrementStep();
+            if (prefetchThreshold > 0) {
+                prefetchIfNecessary(sequence);
+            }
+            return num;
+        } catch (CASEqualsException e) {
+            return null;
+        }
     }
 
-    public static void setCacheSize(int _maxCacheSize, int _evictionAnalysisThreshold, int _survivorSizeAfterEviction) {
-        if (!(_maxCacheSize > _evictionAnalysisThreshold && _evictionAnalysisThreshold > _survivorSizeAfterEviction && _survivorSizeAfterEviction > 0)) {
-            throw new IllegalArgumentException("缓存参数关系应该为_maxCacheSize>_evictionAnalysisThreshold>_survivorSizeAfterEviction>0");
+    private static Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (SequenceContext.class) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread thread = new Thread(r, "global-sequence-async-" + threadNumber.getAndIncrement());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+                    asyncExecutor = executor;
+                }
+            }
         }
-        maxCacheSize = _maxCacheSize;
-        evictionAnalysisThreshold = _evictionAnalysisThreshold;
-        survivorSizeAfterEviction = _survivorSizeAfterEviction;
-        LOGGER.info(String.format(
-                "设置缓存大小,maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d,原大小为：maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d",
-                _maxCacheSize, _evictionAnalysisThreshold, _survivorSizeAfterEviction, maxCacheSize, evictionAnalysisThreshold, survivorSizeAfterEviction));
+        return executor;
     }
 
-    public static boolean initialize(DataSource dataSource) throws Exception {
-        notNull(dataSource, "参数dataSource不能为空！");
+    /**
+     * 直接从数据库预留size个序号，不改变本地号段
+     */
+    private static SequenceRange reserveFromDBAndUpdateDB(final Sequence sequence, final int size) {
+        sequence.getRefillLock().lock();
+        try {
+            SequenceSegment segment = claimSegmentFromDB(sequence, size);
+            return new SequenceRange(segment.getStart(), size, sequence.getStep());
+        } finally {
+            sequence.getRefillLock().unlock();
+        }
+    }
 
-        if (initialized.compareAndSet(false, true)) {
-            SqlSessionFactoryBean sequenceSqlSessionFactory = new SqlSessionFactoryBean();
-            sequenceSqlSessionFactory.setDataSource(dataSource);
-            sequenceSqlSessionFactory.setConfigLocation(new ClassPathResource("mybatis/sequence-configuration.xml"));
-            sequenceSqlSessionFactory.setMapperLocations(new ClassPathResource[]{new ClassPathResource("mybatis/sequence/sequence.xml")});
-
-            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
-            transactionTemplate = new TransactionTemplate(transactionManager);
-            transactionTemplate.setName("sequenceTransaction");
-            transactionTemplate.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
-
-            sequenceDAO = new SequenceDAOImpl();
-            ((SequenceDAOImpl) sequenceDAO).setSqlSessionFactory(sequenceSqlSessionFactory.getObject());
-            LOGGER.info(String.format("全局序列号生成组件初始化完成！DataSource为:%s,maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d", dataSource,
-                    maxCacheSize, evictionAnalysisThreshold, survivorSizeAfterEviction));
-            return true;
-        } else {
-            LOGGER.warn(
-                    String.format("全局序列号生成组件已经初始化,忽略本次初始化，忽略本次参数如下：DataSource为:%s,maxCacheSize:%d,evictionAnalysisThreshold:%d,survivorSizeAfterEviction:%d",
-                            dataSource, maxCacheSize, evictionAnalysisThreshold, survivorSizeAfterEviction));
-            return false;
+    /**
+     * 在独立事务中锁定数据库记录，计算本jvm的下一个号段并把号段最大值更新回数据库等待其他客户端获取下一段序号范围
+     *
+     * @param reserveSize 大于0时预留恰好reserveSize个序号，否则按号段长度取号段
+     */
+    private static SequenceSegment claimSegmentFromDB(final Sequence sequence, final long reserveSize) {
+        checkNotShutdown();
+        if (sequence.getShards() > 0) {
+            return claimSegmentFromShards(sequence, reserveSize, 1);
         }
+        RefillCoordinator coordinator = refillCoordinator;
+        if (reserveSize <= 0 && coordinator != null) {
+            return coordinator.claim(sequence);
+        }
+        return claimSegmentFromDBDirectly(sequence, sequence.getName(), reserveSize, 1);
     }
 
-    public static long getNextSeq(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop) {
-        if (dynamic) {
-            isTrue(min >= 0, "最小值为负");
-            isTrue(max > min, "最大值小于最小值");
-            isTrue(step > 0, "步长为负或0");
-            isTrue(count > 0, "一次性获取个数为负或0");
+    /**
+     * 一次取segments个号段长度的序号，用于号段环一次补足多个号段，调用方自行拆分
+     */
+    private static SequenceSegment claimSegmentsFromDB(final Sequence sequence, int segments) {
+        if (segments <= 1) {
+            return claimSegmentFromDB(sequence, 0);
+        }
+        checkNotShutdown();
+        if (sequence.getShards() > 0) {
+            return claimSegmentFromShards(sequence, 0, segments);
         }
-        while (!initialized.get()) {
-            LOGGER.warn("等待SequenceContext被spring容器初始化，或者请检查SequenceContext是否被配置为Spring bean.");
+        return claimSegmentFromDBDirectly(sequence, sequence.getName(), 0, segments);
+    }
+
+    /**
+     * 分片行模式下先从本jvm优先的行取号段，该行用完或者访问失败时依次尝试其他行；取号段慢说明该行锁竞争激烈，下次换到下一行
+     */
+    private static SequenceSegment claimSegmentFromShards(final Sequence sequence, final long reserveSize, final int segments) {
+        int shards = sequence.getShards();
+        int affinity = sequence.getShard();
+        RuntimeException failure = null;
+        for (int i = 0; i < shards; i++) {
+            int index = (affinity + i) % shards;
+            String rowName = sequence.rowName(index);
+            long start = System.nanoTime();
             try {
-                Thread.sleep(3000);
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
+                SequenceSegment segment = claimSegmentFromDBDirectly(sequence, rowName, reserveSize, segments);
+                boolean slow = System.nanoTime() - start > slowRefillNanos;
+                sequence.setShard(slow ? (index + 1) % shards : index);
+                return segment.withRow(rowName);
+            } catch (RuntimeException e) {
+                checkNotShutdown();
+                if (failure == null) {
+                    failure = e;
+                }
+                LOGGER.warn(String.format("%s从%s取号段失败,尝试下一行", sequence.getName(), rowName), e);
             }
         }
-        String seqFullName = getSeqName(seqName, dynamic);
-        if (getSequenceFromCache(seqFullName) == null) {
-            initSequence(seqFullName, dynamic, min, max, step, count, isLoop);
+        throw failure;
+    }
+
+    private static SequenceSegment claimSegmentFromDBDirectly(final Sequence sequence, final String rowName, final long reserveSize, final int segments) {
+        long start = System.nanoTime();
+        try {
+            SequenceSegment segment = transaction.execute(new SequenceTransaction.Callback<SequenceSegment>() {
+                @Override
+                public SequenceSegment doInTransaction() {
+                    if (reserveSize > 0) {
+                        Sequence seqFromDB = sequenceDAO.queryBySeqNameForUpdate(rowName);// 锁表
+                        SequenceSegment segment = sequence.reserveFromDB(seqFromDB, reserveSize);
+                        sequenceDAO.update(rowName, segment.getEnd());
+                        return segment;
+                    }
+                    applyAdaptiveCount(sequence);
+                    long count = 0;
+                    if (segments > 1) {
+                        long segmentCount = sequence.nextSegmentCount();
+                        count = segmentCount > Long.MAX_VALUE / segments ? Long.MAX_VALUE : segmentCount * segments;
+                    }
+                    if (atomicClaim) {
+                        // 单条语句领取号段，剩余不足、需要循环或者不支持时再加锁查询
+                        if (count == 0) {
+                            count = sequence.nextSegmentCount();
+                        }
+                        long length = sequence.segmentLength(count);
+                        if (length > 0) {
+                            Long end = sequenceDAO.claimBySeqName(rowName, length);
+                            if (end != null) {
+                                return sequence.claimedFromDB(end, length);
+                            }
+                        }
+                    }
+                    Sequence seqFromDB = sequenceDAO.queryBySeqNameForUpdate(rowName);// 锁表
+                    SequenceSegment segment = sequence.allocateFromDB(seqFromDB, count);
+                    sequenceDAO.update(rowName, segment.getEnd());
+                    return segment;
+                }
+            });
+            SequenceMetrics.recordRefill(sequence.getName(), segment, System.nanoTime() - start);
+            return segment;
+        } catch (RuntimeException e) {
+            SequenceMetrics.recordRefillFailure(sequence.getName(), e);
+            throw e;
         }
-        return getSequenceNum(seqFullName);
     }
 
-    private static long getSequenceNum(final String seqName) {
-        final Sequence sequence = getSequenceFromCache(seqName);
-        if (sequence == null) {
-            throw new SequenceException("序号生成服务未知异常");
+    /**
+     * 在一个事务中为多个序号取号段，按name排序一条语句加锁查询、一条语句更新；单个序号的配置或者余量异常只影响该序号的请求
+     * <p>
+     * 批次只有一个请求时按单个序号取号段
+     */
+    static void claimSegmentsFromDB(final List<RefillCoordinator.Request> batch) {
+        if (batch.size() == 1) {
+            RefillCoordinator.Request request = batch.get(0);
+            try {
+                request.segment = claimSegmentFromDBDirectly(request.sequence, request.sequence.getName(), 0, 1);
+            } catch (RuntimeException e) {
+                request.error = e;
+            }
+            return;
         }
-        // 本地已经用完需要取数据库取
-        if (sequence.getCurrent() >= sequence.getMax()) {
-            updateFromDBAndUpdateDB(sequence);
+        long start = System.nanoTime();
+        try {
+            transaction.execute(new SequenceTransaction.Callback<Void>() {
+                @Override
+                public Void doInTransaction() {
+                    List<String> names = new ArrayList<String>(batch.size());
+                    for (RefillCoordinator.Request request : batch) {
+                        names.add(request.sequence.getName());
+                    }
+                    Collections.sort(names);
+                    Map<String, Sequence> seqsFromDB = new HashMap<String, Sequence>();
+                    for (Sequence seqFromDB : sequenceDAO.queryBySeqNamesForUpdate(names)) {// 锁表
+                        seqsFromDB.put(seqFromDB.getName(), seqFromDB);
+                    }
+                    Map<String, Long> currents = new HashMap<String, Long>();
+                    for (RefillCoordinator.Request request : batch) {
+                        Sequence sequence = request.sequence;
+                        try {
+                            applyAdaptiveCount(sequence);
+                            request.segment = sequence.allocateFromDB(seqsFromDB.get(sequence.getName()));
+                            currents.put(sequence.getName(), request.segment.getEnd());
+                        } catch (SequenceException e) {
+                            request.error = e;
+                        }
+                    }
+                    sequenceDAO.updateBatch(currents);
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            for (RefillCoordinator.Request request : batch) {
+                request.segment = null;
+                request.error = e;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        for (RefillCoordinator.Request request : batch) {
+            if (request.error != null) {
+                SequenceMetrics.recordRefillFailure(request.sequence.getName(), request.error);
+            } else {
+                SequenceMetrics.recordRefill(request.sequence.getName(), request.segment, elapsed);
+            }
+        }
+    }
+
+    /**
+     * 号段环不足目标深度时，由后台线程预取号段，同一个序号同时只有一个预取任务
+     */
+    private static void prefetchIfNecessary(final Sequence sequence) {
+        if (sequence.getPrefetching().get() || !sequence.needsReserve(prefetchThreshold)) {
+            return;
+        }
+        if (System.currentTimeMillis() - sequence.getLastPrefetchFailure() < PREFETCH_RETRY_INTERVAL) {
+            return;
+        }
+        if (!sequence.getPrefetching().compareAndSet(false, true)) {
+            return;
         }
         try {
-            return sequence.getCurrentAndIncrementStep();
-        } catch (CASEqualsException e) {
-            return getSequenceNum(seqName);
+            prefetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prefetchFromDBAndUpdateDB(sequence);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sequence.getPrefetching().set(false);
+            LOGGER.warn(String.format("%s预取号段任务提交失败", sequence.getName()), e);
+        }
+    }
+
+    /**
+     * 后台预取一个号段放进号段环，只持有refillLock，取号线程仍可以从号段环切换号段；号段环为空的取号线程会等待预取完成后直接切换，不会重复访问数据库
+     * <p>
+     * 根据耗时调整号段环深度，号段环仍不足时继续预取；预取失败只记录日志，号段用完时由取号线程同步访问数据库
+     */
+    private static void prefetchFromDBAndUpdateDB(final Sequence sequence) {
+        boolean refilled = false;
+        sequence.getRefillLock().lock();
+        try {
+            if (!sequence.needsReserve(prefetchThreshold)) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                // 号段环差多个号段时一次取回再拆分，数据库变慢时也能很快补足
+                int missing = Math.max(1, sequence.getRingDepth() - sequence.getReserveRing().size());
+                SequenceSegment claimed = claimSegmentsFromDB(sequence, missing);
+                if (sequence.isEvicted()) {
+                    // 预取期间序列已被淘汰，号段放入淘汰保留表，重新加载时取回
+                    cache.retainLate(sequence, claimed.split(missing, sequence.getStep()));
+                    return;
+                }
+                sequence.getReserveRing().addAll(claimed.split(missing, sequence.getStep()));
+                refilled = true;
+                sequence.adjustRingDepth(System.nanoTime() - start > slowRefillNanos, RING_SHRINK_INTERVAL);
+            } catch (Exception e) {
+                sequence.setLastPrefetchFailure(System.currentTimeMillis());
+                sequence.adjustRingDepth(true, RING_SHRINK_INTERVAL);
+                LOGGER.warn(String.format("%s预取号段失败,号段用完时将同步从数据库获取", sequence.getName()), e);
+            }
+        } finally {
+            sequence.getRefillLock().unlock();
+            sequence.getPrefetching().set(false);
+        }
+        if (refilled) {
+            prefetchIfNecessary(sequence);
         }
     }
 
     private static Sequence getSequenceFromCache(String seqName) {
-        Sequence sequence = cache.get(seqName);
-        if (sequence != null && cache.size() > evictionAnalysisThreshold) {
-            sequence.setLastUpdate(System.currentTimeMillis());
+        return cache.get(seqName);
+    }
+
+    /**
+     * 序列已被淘汰时改用缓存中的序列，不在缓存中时重新加载，淘汰时保留的号段直接取回
+     */
+    private static Sequence reload(Sequence sequence) {
+        Sequence cached = getSequenceFromCache(sequence.getName());
+        if (cached != null) {
+            return cached;
         }
-        return sequence;
+        return initSequence(sequence.getName(), false, 0, 0, 0, 0, false);
     }
 
     /**
      * 从数据库更新序号范围并更新本地序号范围并更新数据库的current
      */
     private static void updateFromDBAndUpdateDB(final Sequence sequence) {
+        updateFromDBAndUpdateDB(sequence, 1);
+    }
 
-        synchronized (sequence) {
-            if (sequence.getCurrent() < sequence.getMax()) {
+    /**
+     * 本地号段剩余序号少于required个时换一个新号段，剩余部分丢弃
+     */
+    private static void updateFromDBAndUpdateDB(final Sequence sequence, long required) {
+        long start = System.nanoTime();
+        sequence.getSwitchLock().lock();
+        try {
+            // 已被淘汰的序列不再取号段，由调用方改用重新加载的序列
+            if (sequence.remaining() >= required || sequence.isEvicted()) {
                 return;
             }
-            transactionTemplate.execute(new TransactionCallback<Sequence>() {
-                @Override
-                public Sequence doInTransaction(TransactionStatus status) {
-
-                    Sequence seqFromDB = sequenceDAO.queryBySeqNameForUpdate(sequence.getName());// 锁表
-                    sequence.updateFromDB(seqFromDB);// 并同步本地current
-                    sequenceDAO.update(sequence.getName(), sequence.getMax());// 本地最大值更新回数据库等待其他客户端获取下一段序号范围
-                    return sequence;
+            // 号段环中已经预取好号段，直接切换
+            if (switchToReserved(sequence)) {
+                return;
+            }
+            sequence.getRefillLock().lock();
+            try {
+                // 等待中的后台预取可能已经完成
+                if (switchToReserved(sequence)) {
+                    return;
                 }
-            });
+                // 数据库更新成功后再切换本地号段
+                sequence.switchTo(claimSegmentFromDB(sequence, 0));
+            } finally {
+                sequence.getRefillLock().unlock();
+            }
+        } finally {
+            sequence.getSwitchLock().unlock();
+            SequenceMetrics.recordRefillWait(System.nanoTime() - start);
         }
+    }
 
+    private static boolean switchToReserved(Sequence sequence) {
+        SequenceSegment reserved = sequence.getReserveRing().poll();
+        if (reserved == null) {
+            return false;
+        }
+        sequence.switchTo(reserved);
+        SequenceMetrics.recordPrefetchSwitch();
+        return true;
     }
 
-    private static synchronized void initSequence(final String seqName, final boolean dynamic, final long min, final long max, final long step,
-                                                  final long count, final boolean isLoop) {
-        if (getSequenceFromCache(seqName) != null) {
-            return;
+    /**
+     * 按序列名初始化，同一个序列只有第一个调用方访问数据库，其他并发调用方等待其结果
+     */
+    private static Sequence initSequence(final String seqName, final boolean dynamic, final long min, final long max, final long step,
+                                         final long count, final boolean isLoop) {
+        FutureTask<Sequence> task = new FutureTask<Sequence>(new Callable<Sequence>() {
+            @Override
+            public Sequence call() throws Exception {
+                return loadSequence(seqName, dynamic, min, max, step, count, isLoop);
+            }
+        });
+        FutureTask<Sequence> existing = initializing.putIfAbsent(seqName, task);
+        if (existing == null) {
+            existing = task;
+            task.run();
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SequenceException("等待序号初始化被中断：" + seqName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SequenceException("序号初始化异常：" + seqName, cause);
+        } finally {
+            if (existing == task) {
+                initializing.remove(seqName, task);
+            }
+        }
+    }
+
+    private static Sequence loadSequence(final String seqName, final boolean dynamic, final long min, final long max, final long step,
+                                         final long count, final boolean isLoop) {
+        Sequence cached = cache.peek(seqName);
+        if (cached != null) {
+            return cached;
+        }
+        checkNotShutdown();
+        long start = System.nanoTime();
+        Sequence reactivated = reactivate(seqName);
+        if (reactivated != null) {
+            return cacheLoaded(seqName, reactivated, start);
+        }
+        Integer shards = shardedRows.get(seqName);
+        if (shards != null) {
+            return cacheLoaded(seqName, loadShardedSequence(seqName, dynamic, min, max, step, count, isLoop, shards), start);
         }
-        Sequence sequence = transactionTemplate.execute(new TransactionCallback<Sequence>() {
+        Sequence sequence = transaction.execute(new SequenceTransaction.Callback<Sequence>() {
 
             @Override
-            public Sequence doInTransaction(TransactionStatus status) {
+            public Sequence doInTransaction() {
                 Sequence seqFromDB = sequenceDAO.queryBySeqNameForUpdate(seqName);
                 if (seqFromDB == null) {
                     if (dynamic) {
-                        seqFromDB = new Sequence();
-                        seqFromDB.setName(seqName);
-                        seqFromDB.setCount(count);
-                        if (isLoop) {
-                            seqFromDB.setLoop(Sequence.LOOP_YES);
-                        } else {
-                            seqFromDB.setLoop(Sequence.LOOP_NO);
-                        }
-                        seqFromDB.setMax(max);
-                        seqFromDB.setMin(min);
-                        seqFromDB.setStep(step);
-                        seqFromDB.setCurrent(min);
+                        seqFromDB = newRow(seqName, min, max, step, count, isLoop);
                         try {
                             sequenceDAO.insert(seqFromDB);
-                        } catch (DuplicateKeyException e) {
+                        } catch (DuplicateSequenceException e) {
                             // 和谐掉主键重复异常,重新查询一次
                             seqFromDB = sequenceDAO.queryBySeqNameForUpdate(seqName);
                         }
@@ -203,25 +1470,158 @@ public class SequenceContext implements InitializingBean {
                         throw new SequenceException("fixed模式下,数据库中序号数据不存在：" + seqName);
                     }
                 }
-                Sequence seq = new Sequence();
-                seq.setName(seqName);
-                seq.updateFromDB(seqFromDB);
+                Sequence seq = newSequence(seqName, seqFromDB);
                 // 本地最大值更新回数据库等待其他客户端获取下一段序号范围
                 sequenceDAO.update(seq.getName(), seq.getMax());
                 return seq;
             }
 
         });
-        // 清理不活跃sequence对象
-        if (cache.size() >= maxCacheSize) {
-            TreeSet<Sequence> analysisTree = new TreeSet<Sequence>(cache.values());
-            while (analysisTree.size() > survivorSizeAfterEviction) {
-                Sequence seq = analysisTree.pollFirst();
-                cache.remove(seq.getName());
-            }
-        }
+        return cacheLoaded(seqName, sequence, start);
+    }
+
+    private static Sequence cacheLoaded(String seqName, Sequence sequence, long start) {
+        SequenceMetrics.recordInit(seqName, System.nanoTime() - start);
         sequence.setLastUpdate(System.currentTimeMillis());
         cache.put(seqName, sequence);
+        return sequence;
+    }
+
+    /**
+     * 分片行模式下加载序列，从本jvm优先的行开始逐行尝试，每行一个事务，该行不存在、用完或者访问失败时尝试下一行
+     * <p>
+     * dynamic模式下优先的行不存在时插入所有行，主键重复即其他jvm已经插入，忽略
+     */
+    private static Sequence loadShardedSequence(final String seqName, final boolean dynamic, final long min, final long max, final long step,
+                                                final long count, final boolean isLoop, final int shards) {
+        if (dynamic) {
+            isTrue(step <= (max - min) / shards, "步长*分片行数超过序号范围");
+        }
+        int affinity = Math.abs(JVM_NAME.hashCode() % shards);
+        RuntimeException failure = null;
+        for (int i = 0; i < shards; i++) {
+            final int index = (affinity + i) % shards;
+            final String rowName = Sequence.rowName(seqName, index);
+            try {
+                Sequence sequence = transaction.execute(new SequenceTransaction.Callback<Sequence>() {
+                    @Override
+                    public Sequence doInTransaction() {
+                        Sequence seqFromDB = sequenceDAO.queryBySeqNameForUpdate(rowName);
+                        if (seqFromDB == null) {
+                            if (!dynamic) {
+                                return null;
+                            }
+                            for (int j = 0; j < shards; j++) {
+                                try {
+                                    sequenceDAO.insert(newRow(Sequence.rowName(seqName, j), min + j * step, max, step * shards, count, isLoop));
+                                } catch (DuplicateSequenceException e) {
+                                    // 其他jvm已经插入该行
+                                }
+                            }
+                            seqFromDB = sequenceDAO.queryBySeqNameForUpdate(rowName);
+                        }
+                        Sequence seq = newSequence(seqName, seqFromDB, shards, index);
+                        sequenceDAO.update(rowName, seq.getMax());
+                        return seq;
+                    }
+                });
+                if (sequence != null) {
+                    return sequence;
+                }
+            } catch (RuntimeException e) {
+                checkNotShutdown();
+                if (failure == null) {
+                    failure = e;
+                }
+                LOGGER.warn(String.format("%s从%s加载失败,尝试下一行", seqName, rowName), e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        throw new SequenceException(String.format("fixed模式下,数据库中序号数据不存在：%s~%s", Sequence.rowName(seqName, 0), Sequence.rowName(seqName, shards - 1)));
+    }
+
+    /**
+     * dynamic模式下新插入的数据库记录
+     */
+    private static Sequence newRow(String name, long min, long max, long step, long count, boolean isLoop) {
+        Sequence seqFromDB = new Sequence();
+        seqFromDB.setName(name);
+        seqFromDB.setCount(count);
+        if (isLoop) {
+            seqFromDB.setLoop(Sequence.LOOP_YES);
+        } else {
+            seqFromDB.setLoop(Sequence.LOOP_NO);
+        }
+        seqFromDB.setMax(max);
+        seqFromDB.setMin(min);
+        seqFromDB.setStep(step);
+        seqFromDB.setCurrent(min);
+        return seqFromDB;
+    }
+
+    /**
+     * 根据数据库记录新建本地序号并取第一个号段，需要在事务中调用，调用方负责把号段最大值更新回数据库
+     */
+    private static Sequence newSequence(String seqName, Sequence seqFromDB) {
+        return newSequence(seqName, seqFromDB, 0, 0);
+    }
+
+    /**
+     * 同{@link #newSequence(String, Sequence)}，分片行模式下seqFromDB为第shard行
+     */
+    private static Sequence newSequence(String seqName, Sequence seqFromDB, int shards, int shard) {
+        Sequence seq = newSequence(seqName, shards, shard);
+        seq.updateFromDB(seqFromDB);
+        return seq;
+    }
+
+    /**
+     * 新建还没有号段的本地序号，只设置本地配置项
+     */
+    private static Sequence newSequence(String seqName, int shards, int shard) {
+        Sequence seq = new Sequence();
+        seq.setName(seqName);
+        seq.setShards(shards);
+        seq.setShard(shard);
+        seq.setRingDepthRange(minRingDepth, maxRingDepth);
+        applyAdaptiveCount(seq);
+        Integer relaxedChunk = relaxedChunks.get(seqName);
+        if (relaxedChunk != null) {
+            seq.setRelaxedChunk(relaxedChunk);
+        }
+        return seq;
+    }
+
+    /**
+     * 取回淘汰时保留的号段重建本地序号，不访问数据库；没有保留的号段时返回null
+     * <p>
+     * 序号配置项使用淘汰时的值，在下次从数据库取号段时同步
+     */
+    private static Sequence reactivate(String seqName) {
+        Sequence seq = newSequence(seqName, 0, 0);
+        List<SequenceSegment> segments = cache.takeEvicted(seqName, seq);
+        if (segments.isEmpty()) {
+            return null;
+        }
+        SequenceSegment last = segments.get(segments.size() - 1);
+        seq.setRemainingInDB((seq.getMaxInDB() - last.getEnd()) / seq.getStep());
+        seq.switchTo(segments.get(0));
+        // 淘汰时号段环中的号段放回号段环
+        seq.getReserveRing().addAll(segments.subList(1, segments.size()));
+        return seq;
+    }
+
+    /**
+     * 分片行的行名name#i转换为逻辑序列名，其他名称原样返回
+     */
+    private static String logicalName(String name) {
+        int index = name.lastIndexOf(Sequence.ROW_SEPARATOR);
+        if (index > 0 && shardedRows.containsKey(name.substring(0, index))) {
+            return name.substring(0, index);
+        }
+        return name;
     }
 
     private static String getSeqName(String seqName, boolean dynamic) {
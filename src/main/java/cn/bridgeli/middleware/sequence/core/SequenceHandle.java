@@ -0,0 +1,71 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * 序号句柄，通过SequenceContext.getHandle获取，解析一次后保存使用，例如放在静态常量中
+ * <p>
+ * 句柄持有已经加载的序列，本地号段有剩余时直接CAS取号，不拼接序列全名、不查询缓存；
+ * 号段用完时才按名称重新解析一次，序列被淘汰出缓存后句柄仍然可用
+ *
+ * @author bridgeli
+ */
+@Getter
+public final class SequenceHandle {
+
+    /**
+     * 序列全名，dynamic模式带前缀
+     */
+    private final String seqName;
+    private final boolean dynamic;
+    private final long min;
+    private final long max;
+    private final long step;
+    private final long count;
+    private final boolean loop;
+
+    /**
+     * 最近一次解析到的序列，第一次取号前为null
+     */
+    @Getter(AccessLevel.NONE)
+    volatile Sequence sequence;
+
+    SequenceHandle(String seqName, boolean dynamic, long min, long max, long step, long count, boolean loop) {
+        this.seqName = seqName;
+        this.dynamic = dynamic;
+        this.min = min;
+        this.max = max;
+        this.step = step;
+        this.count = count;
+        this.loop = loop;
+    }
+
+    public long next() {
+        return SequenceContext.getSequenceNum(this);
+    }
+
+    /**
+     * 批量获取size个连续序号，同SequenceContext.getNextSeqRange
+     */
+    public SequenceRange nextRange(int size) {
+        return SequenceContext.getSequenceRange(this, size);
+    }
+
+    /**
+     * 批量获取序号并依次写入ids，写满整个数组
+     */
+    public void next(long[] ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("参数ids不能为空！");
+        }
+        if (ids.length > 0) {
+            nextRange(ids.length).fill(ids, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceHandle(" + seqName + ")";
+    }
+}
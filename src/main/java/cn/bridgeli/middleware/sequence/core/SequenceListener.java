@@ -0,0 +1,42 @@
+package cn.bridgeli.middleware.sequence.core;
+
+/**
+ * 序号生成事件监听，通过{@link SequenceMetrics#addListener(SequenceListener)}注册
+ * <p/>
+ * 回调在取号线程或后台线程中同步执行，实现应当足够轻量且不抛出异常，抛出的异常只会被记录日志
+ *
+ * @author bridgeli
+ */
+public interface SequenceListener {
+
+    /**
+     * 从数据库取到一个新号段
+     *
+     * @param seqName       序列全名
+     * @param segment       取到的号段
+     * @param lockHoldNanos 事务耗时，即数据库记录被锁定的时间
+     */
+    void onRefill(String seqName, SequenceSegment segment, long lockHoldNanos);
+
+    /**
+     * 从数据库取号段失败
+     */
+    void onRefillFailure(String seqName, Throwable cause);
+
+    /**
+     * 序列首次加载到本地缓存
+     */
+    void onInit(String seqName, long nanos);
+
+    /**
+     * 缓存淘汰了evicted个序列
+     */
+    void onEviction(int evicted, long nanos);
+
+    /**
+     * 不循环使用的序列在数据库中剩余的序号不足
+     *
+     * @param remaining 数据库中剩余的序号范围
+     */
+    void onShortage(String seqName, long remaining);
+}
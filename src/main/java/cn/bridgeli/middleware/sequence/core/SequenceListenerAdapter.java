@@ -0,0 +1,29 @@
+package cn.bridgeli.middleware.sequence.core;
+
+/**
+ * {@link SequenceListener}的空实现，只需要关心部分事件时继承本类
+ *
+ * @author bridgeli
+ */
+public abstract class SequenceListenerAdapter implements SequenceListener {
+
+    @Override
+    public void onRefill(String seqName, SequenceSegment segment, long lockHoldNanos) {
+    }
+
+    @Override
+    public void onRefillFailure(String seqName, Throwable cause) {
+    }
+
+    @Override
+    public void onInit(String seqName, long nanos) {
+    }
+
+    @Override
+    public void onEviction(int evicted, long nanos) {
+    }
+
+    @Override
+    public void onShortage(String seqName, long remaining) {
+    }
+}
@@ -0,0 +1,175 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 序号生成组件的运行指标和事件分发
+ * <p/>
+ * 取号热路径上的计数使用LongAdder，只有发生CAS重试时才会写入；取号段、初始化、淘汰等低频事件记录耗时直方图并通知监听者
+ *
+ * @author bridgeli
+ */
+public final class SequenceMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
+
+    private static final LongAdder REFILL_COUNT = new LongAdder();
+    private static final LongAdder REFILL_FAILURE_COUNT = new LongAdder();
+    private static final LongAdder PREFETCH_SWITCH_COUNT = new LongAdder();
+    private static final LongAdder INIT_COUNT = new LongAdder();
+    private static final LongAdder CAS_RETRY_COUNT = new LongAdder();
+    private static final LongAdder CAS_EQUALS_COUNT = new LongAdder();
+
+    /**
+     * 取号段事务耗时，即数据库记录被锁定的时间
+     */
+    private static final LatencyHistogram REFILL_LATENCY = new LatencyHistogram();
+    /**
+     * 取号线程等待号段的时间，包括等待其他线程取号段
+     */
+    private static final LatencyHistogram REFILL_WAIT_LATENCY = new LatencyHistogram();
+    private static final LatencyHistogram INIT_LATENCY = new LatencyHistogram();
+    private static final LatencyHistogram EVICTION_LATENCY = new LatencyHistogram();
+
+    private static final List<SequenceListener> LISTENERS = new CopyOnWriteArrayList<SequenceListener>();
+
+    private SequenceMetrics() {
+    }
+
+    public static void addListener(SequenceListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("参数listener不能为空！");
+        }
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(SequenceListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    static void recordRefill(String seqName, SequenceSegment segment, long nanos) {
+        REFILL_COUNT.increment();
+        REFILL_LATENCY.record(nanos);
+        for (SequenceListener listener : LISTENERS) {
+            try {
+                listener.onRefill(seqName, segment, nanos);
+            } catch (Exception e) {
+                LOGGER.warn("序号事件监听异常", e);
+            }
+        }
+    }
+
+    static void recordRefillFailure(String seqName, Throwable cause) {
+        REFILL_FAILURE_COUNT.increment();
+        for (SequenceListener listener : LISTENERS) {
+            try {
+                listener.onRefillFailure(seqName, cause);
+            } catch (Exception e) {
+                LOGGER.warn("序号事件监听异常", e);
+            }
+        }
+    }
+
+    static void recordRefillWait(long nanos) {
+        REFILL_WAIT_LATENCY.record(nanos);
+    }
+
+    static void recordPrefetchSwitch() {
+        PREFETCH_SWITCH_COUNT.increment();
+    }
+
+    static void recordInit(String seqName, long nanos) {
+        INIT_COUNT.increment();
+        INIT_LATENCY.record(nanos);
+        for (SequenceListener listener : LISTENERS) {
+            try {
+                listener.onInit(seqName, nanos);
+            } catch (Exception e) {
+                LOGGER.warn("序号事件监听异常", e);
+            }
+        }
+    }
+
+    static void recordEviction(int evicted, long nanos) {
+        EVICTION_LATENCY.record(nanos);
+        for (SequenceListener listener : LISTENERS) {
+            try {
+                listener.onEviction(evicted, nanos);
+            } catch (Exception e) {
+                LOGGER.warn("序号事件监听异常", e);
+            }
+        }
+    }
+
+    static void recordShortage(String seqName, long remaining) {
+        for (SequenceListener listener : LISTENERS) {
+            try {
+                listener.onShortage(seqName, remaining);
+            } catch (Exception e) {
+                LOGGER.warn("序号事件监听异常", e);
+            }
+        }
+    }
+
+    static void recordCasRetry(int retries) {
+        CAS_RETRY_COUNT.add(retries);
+    }
+
+    static void recordCasEquals() {
+        CAS_EQUALS_COUNT.increment();
+    }
+
+    /**
+     * 从数据库取号段的次数，包括后台预取和批量预留
+     */
+    public static long getRefillCount() {
+        return REFILL_COUNT.sum();
+    }
+
+    public static long getRefillFailureCount() {
+        return REFILL_FAILURE_COUNT.sum();
+    }
+
+    /**
+     * 号段用完时直接切换到预取号段的次数
+     */
+    public static long getPrefetchSwitchCount() {
+        return PREFETCH_SWITCH_COUNT.sum();
+    }
+
+    public static long getInitCount() {
+        return INIT_COUNT.sum();
+    }
+
+    public static long getCasRetryCount() {
+        return CAS_RETRY_COUNT.sum();
+    }
+
+    /**
+     * 取号时发现本地号段已用完的次数
+     */
+    public static long getCasEqualsCount() {
+        return CAS_EQUALS_COUNT.sum();
+    }
+
+    public static LatencyHistogram getRefillLatency() {
+        return REFILL_LATENCY;
+    }
+
+    public static LatencyHistogram getRefillWaitLatency() {
+        return REFILL_WAIT_LATENCY;
+    }
+
+    public static LatencyHistogram getInitLatency() {
+        return INIT_LATENCY;
+    }
+
+    public static LatencyHistogram getEvictionLatency() {
+        return EVICTION_LATENCY;
+    }
+}
@@ -0,0 +1,135 @@
+package cn.bridgeli.middleware.sequence.core;
+
+/**
+ * @author bridgeli
+ */
+public class SequenceMonitor implements SequenceMonitorMBean {
+
+    private final SequenceCache cache;
+
+    public SequenceMonitor(SequenceCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hit = cache.getHitCount();
+        long total = hit + cache.getMissCount();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @Override
+    public long getEvictionMaxMillis() {
+        return SequenceMetrics.getEvictionLatency().getMaxMicros() / 1000;
+    }
+
+    @Override
+    public long getRefillCount() {
+        return SequenceMetrics.getRefillCount();
+    }
+
+    @Override
+    public long getRefillFailureCount() {
+        return SequenceMetrics.getRefillFailureCount();
+    }
+
+    @Override
+    public long getPrefetchSwitchCount() {
+        return SequenceMetrics.getPrefetchSwitchCount();
+    }
+
+    @Override
+    public long getRefillLockHoldMeanMicros() {
+        return SequenceMetrics.getRefillLatency().getMeanMicros();
+    }
+
+    @Override
+    public long getRefillLockHoldP99Micros() {
+        return SequenceMetrics.getRefillLatency().getPercentileMicros(99);
+    }
+
+    @Override
+    public long getRefillLockHoldMaxMicros() {
+        return SequenceMetrics.getRefillLatency().getMaxMicros();
+    }
+
+    @Override
+    public long getRefillWaitP99Micros() {
+        return SequenceMetrics.getRefillWaitLatency().getPercentileMicros(99);
+    }
+
+    @Override
+    public long getRefillWaitMaxMicros() {
+        return SequenceMetrics.getRefillWaitLatency().getMaxMicros();
+    }
+
+    @Override
+    public long getInitCount() {
+        return SequenceMetrics.getInitCount();
+    }
+
+    @Override
+    public long getInitP99Micros() {
+        return SequenceMetrics.getInitLatency().getPercentileMicros(99);
+    }
+
+    @Override
+    public long getCasRetryCount() {
+        return SequenceMetrics.getCasRetryCount();
+    }
+
+    @Override
+    public long getCasEqualsCount() {
+        return SequenceMetrics.getCasEqualsCount();
+    }
+
+    @Override
+    public long getRemaining(String seqName) {
+        Sequence sequence = cache.peek(seqName);
+        return sequence == null ? -1 : sequence.remaining();
+    }
+
+    @Override
+    public long getRemainingInDB(String seqName) {
+        Sequence sequence = cache.peek(seqName);
+        return sequence == null ? -1 : sequence.getRemainingInDB();
+    }
+
+    @Override
+    public int getReserveDepth(String seqName) {
+        Sequence sequence = cache.peek(seqName);
+        return sequence == null ? -1 : sequence.getReserveRing().size();
+    }
+
+    @Override
+    public int getReserveTargetDepth(String seqName) {
+        Sequence sequence = cache.peek(seqName);
+        return sequence == null ? -1 : sequence.getRingDepth();
+    }
+
+    @Override
+    public long getTimeToEmptyMillis(String seqName) {
+        Sequence sequence = cache.peek(seqName);
+        return sequence == null ? -1 : sequence.timeToEmptyMillis();
+    }
+}
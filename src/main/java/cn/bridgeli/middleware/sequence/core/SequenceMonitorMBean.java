@@ -0,0 +1,80 @@
+package cn.bridgeli.middleware.sequence.core;
+
+/**
+ * 序号生成组件的JMX监控接口，通过{@link SequenceContext#registerMBean()}注册
+ *
+ * @author bridgeli
+ */
+public interface SequenceMonitorMBean {
+
+    int getCacheSize();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    double getCacheHitRatio();
+
+    long getEvictionCount();
+
+    long getEvictionMaxMillis();
+
+    long getRefillCount();
+
+    long getRefillFailureCount();
+
+    long getPrefetchSwitchCount();
+
+    long getRefillLockHoldMeanMicros();
+
+    long getRefillLockHoldP99Micros();
+
+    long getRefillLockHoldMaxMicros();
+
+    long getRefillWaitP99Micros();
+
+    long getRefillWaitMaxMicros();
+
+    long getInitCount();
+
+    long getInitP99Micros();
+
+    long getCasRetryCount();
+
+    long getCasEqualsCount();
+
+    /**
+     * 序列本地号段剩余的序号个数，序列不在缓存中时为-1
+     *
+     * @param seqName 序列全名，dynamic模式需要加上_dynamic_前缀
+     */
+    long getRemaining(String seqName);
+
+    /**
+     * 序列上次取号段时数据库中剩余的序号个数，序列不在缓存中时为-1
+     *
+     * @param seqName 序列全名，dynamic模式需要加上_dynamic_前缀
+     */
+    long getRemainingInDB(String seqName);
+
+    /**
+     * 序列号段环中已经预取好的号段个数，序列不在缓存中时为-1
+     *
+     * @param seqName 序列全名，dynamic模式需要加上_dynamic_前缀
+     */
+    int getReserveDepth(String seqName);
+
+    /**
+     * 序列号段环当前的目标深度，序列不在缓存中时为-1
+     *
+     * @param seqName 序列全名，dynamic模式需要加上_dynamic_前缀
+     */
+    int getReserveTargetDepth(String seqName);
+
+    /**
+     * 按最近的消耗速度，本地号段和号段环中的序号还能用多久(毫秒)，即数据库不可用时还能继续发号的时间；序列不在缓存中或者还没有消耗速度时为-1
+     *
+     * @param seqName 序列全名，dynamic模式需要加上_dynamic_前缀
+     */
+    long getTimeToEmptyMillis(String seqName);
+}
@@ -0,0 +1,62 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import lombok.Getter;
+
+/**
+ * 批量取号结果：从start开始，间隔为step的连续size个序号
+ * <p/>
+ * 只记录范围，不为每个序号分配对象
+ *
+ * @author bridgeli
+ */
+@Getter
+public class SequenceRange {
+
+    /**
+     * 第一个序号
+     */
+    private final long start;
+    /**
+     * 序号个数
+     */
+    private final int size;
+    /**
+     * 步长
+     */
+    private final long step;
+
+    public SequenceRange(long start, int size, long step) {
+        this.start = start;
+        this.size = size;
+        this.step = step;
+    }
+
+    /**
+     * 获取第index个序号，index从0开始
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index:" + index + ",size:" + size);
+        }
+        return start + index * step;
+    }
+
+    /**
+     * 把全部序号依次写入ids，从offset位置开始
+     */
+    public void fill(long[] ids, int offset) {
+        if (offset < 0 || ids.length - offset < size) {
+            throw new IndexOutOfBoundsException("ids.length:" + ids.length + ",offset:" + offset + ",size:" + size);
+        }
+        long seq = start;
+        for (int i = 0; i < size; i++) {
+            ids[offset + i] = seq;
+            seq += step;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceRange(start=" + start + ", size=" + size + ", step=" + step + ")";
+    }
+}
@@ -0,0 +1,71 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * 号段：从数据库中取出的一段序号范围 [start, end)
+ * <p/>
+ * 号段一旦取出即不可变，由{@link Sequence}持有并在本地消费
+ *
+ * @author bridgeli
+ */
+@Getter
+public class SequenceSegment {
+
+    /**
+     * 号段起始序号(包含)
+     */
+    private final long start;
+    /**
+     * 号段结束序号(不包含)
+     */
+    private final long end;
+    /**
+     * 号段所属的数据库行，分片行模式下为name#i，不分片时为null即序号本身
+     */
+    private final String row;
+
+    public SequenceSegment(long start, long end) {
+        this(start, end, null);
+    }
+
+    public SequenceSegment(long start, long end, String row) {
+        this.start = start;
+        this.end = end;
+        this.row = row;
+    }
+
+    /**
+     * 返回标记了所属数据库行的同一号段
+     */
+    public SequenceSegment withRow(String row) {
+        return new SequenceSegment(start, end, row);
+    }
+
+    /**
+     * 按步长把号段等分成parts个首尾相连的号段，最后一个号段包含除不尽的部分；序号个数不足parts个时不拆分
+     */
+    public List<SequenceSegment> split(int parts, long step) {
+        List<SequenceSegment> segments = new ArrayList<SequenceSegment>(parts);
+        long size = (end - start) / step / parts * step;
+        if (parts <= 1 || size <= 0) {
+            segments.add(this);
+            return segments;
+        }
+        long from = start;
+        for (int i = 1; i < parts; i++) {
+            segments.add(new SequenceSegment(from, from + size, row));
+            from += size;
+        }
+        segments.add(new SequenceSegment(from, end, row));
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,89 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import cn.bridgeli.middleware.sequence.dao.MySQLDialect;
+import cn.bridgeli.middleware.sequence.dao.NativeSequenceDialect;
+import cn.bridgeli.middleware.sequence.dao.SequenceDAOImpl;
+import cn.bridgeli.middleware.sequence.dao.SequenceDialect;
+import cn.bridgeli.middleware.sequence.dao.SpringSequenceTransaction;
+import lombok.Setter;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * spring中初始化SequenceContext的bean，默认使用原生JDBC；myBatis为true时使用原来的mybatis和spring事务
+ * <p>
+ * 容器关闭时调用SequenceContext#shutdown，把没用完的号段归还数据库
+ *
+ * @author bridgeli
+ */
+public class SpringSequenceContext implements InitializingBean, DisposableBean {
+
+    @Setter
+    private DataSource dataSource;
+
+    @Setter
+    private boolean myBatis;
+
+    /**
+     * 原生JDBC方式下sequence表的方言，默认为MySQL；配置了nativeDialect时改为使用数据库原生序列
+     */
+    @Setter
+    private SequenceDialect dialect;
+    @Setter
+    private NativeSequenceDialect nativeDialect;
+
+    /**
+     * 初始化时预热的fixed序号名称和前缀，见SequenceContext#setWarmUp
+     */
+    @Setter
+    private List<String> warmUpSeqNames;
+    @Setter
+    private String warmUpPrefix;
+
+    /**
+     * 序号数据库访问专用线程池的线程数和等待超时时间，见SequenceContext#setDBExecutor，线程数为0时不开启
+     */
+    @Setter
+    private int dbThreads;
+    @Setter
+    private long dbTimeoutMillis = 3000;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (dbThreads > 0) {
+            SequenceContext.setDBExecutor(dbThreads, dbTimeoutMillis);
+        }
+        if (warmUpSeqNames != null || warmUpPrefix != null) {
+            SequenceContext.setWarmUp(warmUpSeqNames, warmUpPrefix);
+        }
+        if (nativeDialect != null) {
+            SequenceContext.initialize(dataSource, nativeDialect);
+            return;
+        }
+        if (!myBatis) {
+            SequenceContext.initialize(dataSource, dialect != null ? dialect : new MySQLDialect());
+            return;
+        }
+        if (dataSource == null) {
+            throw new IllegalArgumentException("参数dataSource不能为空！");
+        }
+        SqlSessionFactoryBean sequenceSqlSessionFactory = new SqlSessionFactoryBean();
+        sequenceSqlSessionFactory.setDataSource(dataSource);
+        sequenceSqlSessionFactory.setConfigLocation(new ClassPathResource("mybatis/sequence-configuration.xml"));
+        sequenceSqlSessionFactory.setMapperLocations(new ClassPathResource[]{new ClassPathResource("mybatis/sequence/sequence.xml")});
+
+        SequenceDAOImpl sequenceDAO = new SequenceDAOImpl();
+        sequenceDAO.setSqlSessionFactory(sequenceSqlSessionFactory.getObject());
+        SequenceContext.initialize(sequenceDAO, new SpringSequenceTransaction(dataSource));
+    }
+
+    @Override
+    public void destroy() {
+        SequenceContext.shutdown();
+    }
+}
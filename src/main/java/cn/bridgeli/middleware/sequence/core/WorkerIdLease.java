@@ -0,0 +1,269 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import cn.bridgeli.middleware.sequence.dao.SequenceDAO;
+import cn.bridgeli.middleware.sequence.dao.SequenceTransaction;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 通过sequence表租用worker id
+ * <p/>
+ * 每个worker id对应sequence表中的一行，name为_snowflake_worker_{id}，current记录租约到期时间，
+ * 租约过期的行可以被其他jvm抢占；租到后由后台线程定期续约，续约时校验current仍为本jvm写入的到期时间，否则说明租约已丢失
+ * <p/>
+ * snowflake序号的时间戳最多比时钟超前maxBackwardMillis：本jvm在到期前maxBackwardMillis停止发号，
+ * 其他jvm在到期后再等maxBackwardMillis加上clockSkewMillis才能抢占，新的持有者不会发出与上一个持有者相同时间戳的序号
+ *
+ * @author bridgeli
+ */
+public class WorkerIdLease {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
+
+    private static final String WORKER_NAME_PREFIX = "_snowflake_worker_";
+    private static final long DEFAULT_CLOCK_SKEW_MILLIS = 1000L;
+
+    private final int maxWorkerId;
+    private final long leaseMillis;
+    /**
+     * 序号时间戳最多超前时钟的毫秒数，即snowflake允许的最大时钟回拨
+     */
+    @Getter
+    private volatile long maxBackwardMillis;
+    /**
+     * jvm之间的时钟偏差余量
+     */
+    @Getter
+    private volatile long clockSkewMillis = DEFAULT_CLOCK_SKEW_MILLIS;
+
+    /**
+     * 本jvm持有的租约，未租用或租约丢失时为null；worker id和到期时间一起发布，取号方读一次即得到一致的两者
+     */
+    private volatile Grant grant;
+    private ScheduledExecutorService renewExecutor;
+    /**
+     * 租用和租约丢失时持有的锁，租用时会访问数据库，使用j.u.c的锁避免虚拟线程占住载体线程
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param maxWorkerId       worker id上限(包含)
+     * @param leaseMillis       租约时长(毫秒)，每隔三分之一租约时长续约一次
+     * @param maxBackwardMillis 序号时间戳最多超前时钟的毫秒数，需要小于租约时长
+     */
+    public WorkerIdLease(int maxWorkerId, long leaseMillis, long maxBackwardMillis) {
+        if (maxWorkerId < 0) {
+            throw new IllegalArgumentException("worker id上限为负");
+        }
+        if (leaseMillis <= 0) {
+            throw new IllegalArgumentException("租约时长为负或0");
+        }
+        this.maxWorkerId = maxWorkerId;
+        this.leaseMillis = leaseMillis;
+        setMaxBackwardMillis(maxBackwardMillis);
+    }
+
+    public void setMaxBackwardMillis(long _maxBackwardMillis) {
+        if (_maxBackwardMillis < 0 || _maxBackwardMillis >= leaseMillis) {
+            throw new IllegalArgumentException("允许的时钟回拨应该不小于0且小于租约时长");
+        }
+        maxBackwardMillis = _maxBackwardMillis;
+    }
+
+    public void setClockSkewMillis(long _clockSkewMillis) {
+        if (_clockSkewMillis < 0) {
+            throw new IllegalArgumentException("时钟偏差余量为负");
+        }
+        clockSkewMillis = _clockSkewMillis;
+    }
+
+    /**
+     * 租用一个空闲或租约已过期的worker id，并开始定期续约
+     */
+    public int acquire() {
+        lock.lock();
+        try {
+            Grant current = grant;
+            if (current != null) {
+                return current.getWorkerId();
+            }
+            SequenceContext.awaitInitialized();
+            int total = maxWorkerId + 1;
+            int offset = new Random().nextInt(total);
+            for (int i = 0; i < total; i++) {
+                int candidate = (offset + i) % total;
+                Long expire = tryAcquire(candidate);
+                if (expire != null) {
+                    grant = new Grant(candidate, expire);
+                    startRenew();
+                    LOGGER.info(String.format("租用worker id成功,workerId:%d,租约到期时间:%d", candidate, expire));
+                    return candidate;
+                }
+            }
+            throw new SequenceException("没有空闲的worker id,worker id上限:" + maxWorkerId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前持有的租约，未租用或租约丢失时返回null；发号时读一次，之后只使用这一个租约的worker id和到期时间
+     */
+    public Grant getGrant() {
+        return grant;
+    }
+
+    /**
+     * 当前租用的worker id，未租用时为-1
+     */
+    public int getWorkerId() {
+        Grant current = grant;
+        return current == null ? -1 : current.getWorkerId();
+    }
+
+    /**
+     * 本jvm持有的租约到期时间，未租用时为0
+     */
+    public long getLeaseExpire() {
+        Grant current = grant;
+        return current == null ? 0 : current.getExpire();
+    }
+
+    /**
+     * 租约是否仍然可以发号，不访问数据库；到期前maxBackwardMillis即失效，保证发出的时间戳都早于到期时间
+     */
+    public boolean isValid() {
+        Grant current = grant;
+        return current != null && current.isValid(System.currentTimeMillis(), maxBackwardMillis);
+    }
+
+    /**
+     * @return 租到时返回到期时间，否则返回null
+     */
+    private Long tryAcquire(final int candidate) {
+        final String name = WORKER_NAME_PREFIX + candidate;
+        try {
+            return SequenceContext.executeInTransaction(new SequenceTransaction.Callback<Long>() {
+                @Override
+                public Long doInTransaction() {
+                    SequenceDAO sequenceDAO = SequenceContext.getSequenceDAO();
+                    Sequence row = sequenceDAO.queryBySeqNameForUpdate(name);
+                    long now = System.currentTimeMillis();
+                    long expire = now + leaseMillis;
+                    if (row == null) {
+                        row = new Sequence();
+                        row.setName(name);
+                        row.setCurrent(expire);
+                        row.setMin(0);
+                        row.setMax(Long.MAX_VALUE);
+                        row.setStep(1);
+                        row.setCount(1);
+                        row.setLoop(Sequence.LOOP_NO);
+                        sequenceDAO.insert(row);
+                        return expire;
+                    }
+                    // 上一个持有者发出的时间戳最多到expire，再加上两台机器的时钟偏差
+                    if (row.getCurrent() + maxBackwardMillis + clockSkewMillis < now) {
+                        sequenceDAO.update(name, expire);
+                        return expire;
+                    }
+                    return null;
+                }
+            });
+        } catch (DuplicateSequenceException e) {
+            // 其他jvm同时创建了这个worker id
+            return null;
+        }
+    }
+
+    /**
+     * 续约，租约已被其他jvm抢占时不再续约，isValid随之失效，下次acquire重新租用
+     */
+    private void renew() {
+        final Grant current = grant;
+        if (current == null) {
+            return;
+        }
+        final String name = WORKER_NAME_PREFIX + current.getWorkerId();
+        final long expect = current.getExpire();
+        Long expire = SequenceContext.executeInTransaction(new SequenceTransaction.Callback<Long>() {
+            @Override
+            public Long doInTransaction() {
+                SequenceDAO sequenceDAO = SequenceContext.getSequenceDAO();
+                Sequence row = sequenceDAO.queryBySeqNameForUpdate(name);
+                if (row == null || row.getCurrent() != expect) {
+                    return null;
+                }
+                long expire = System.currentTimeMillis() + leaseMillis;
+                sequenceDAO.update(name, expire);
+                return expire;
+            }
+        });
+        if (expire == null) {
+            LOGGER.error(String.format("worker id租约已丢失,workerId:%d,停止续约", current.getWorkerId()));
+            lock.lock();
+            try {
+                grant = null;
+                renewExecutor.shutdown();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        grant = new Grant(current.getWorkerId(), expire);
+    }
+
+    private void startRenew() {
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "global-sequence-worker-lease");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, leaseMillis / 3);
+        renewExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    renew();
+                } catch (Exception e) {
+                    LOGGER.warn(String.format("worker id续约失败,workerId:%d,租约到期时间:%d", getWorkerId(), getLeaseExpire()), e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 一次租用或续约得到的租约，不可变
+     */
+    @Getter
+    public static final class Grant {
+        private final int workerId;
+        /**
+         * 租约到期时间，同时作为续约时的校验值
+         */
+        private final long expire;
+
+        Grant(int workerId, long expire) {
+            this.workerId = workerId;
+            this.expire = expire;
+        }
+
+        /**
+         * 在now时刻是否仍然可以发号，到期前maxBackwardMillis即失效
+         */
+        public boolean isValid(long now, long maxBackwardMillis) {
+            return now < expire - maxBackwardMillis;
+        }
+    }
+}
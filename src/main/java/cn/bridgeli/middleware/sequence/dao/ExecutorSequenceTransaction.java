@@ -0,0 +1,120 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import lombok.Getter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在专用线程池中执行序号事务，线程数即序号组件同时占用的数据库连接数上限
+ * <p>
+ * 调用方自己的事务和连接不受影响，也不会因为调用方已经占用一个连接、序号事务再要一个连接而把连接池耗尽；
+ * 调用方最多等待timeoutMillis，超时后任务还没开始就直接取消，已经开始的任务继续执行完，取到的号段作废
+ *
+ * @author bridgeli
+ */
+public class ExecutorSequenceTransaction implements SequenceTransaction {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
+
+    @Getter
+    private final SequenceTransaction delegate;
+    @Getter
+    private final int threads;
+    @Getter
+    private final long timeoutMillis;
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * 标记当前线程是本线程池的线程，嵌套调用时直接在当前线程执行，避免线程池被自己占满
+     */
+    private final ThreadLocal<Boolean> inExecutor = new ThreadLocal<Boolean>();
+
+    public ExecutorSequenceTransaction(SequenceTransaction delegate, int threads, long timeoutMillis) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("参数delegate不能为空！");
+        }
+        if (threads <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("线程数和超时时间应该大于0");
+        }
+        this.delegate = delegate;
+        this.threads = threads;
+        this.timeoutMillis = timeoutMillis;
+        final int poolNumber = POOL_NUMBER.getAndIncrement();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "global-sequence-db-" + poolNumber + "-" + threadNumber.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    @Override
+    public <T> T execute(final Callback<T> callback) {
+        if (inExecutor.get() != null) {
+            return delegate.execute(callback);
+        }
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                inExecutor.set(Boolean.TRUE);
+                try {
+                    return delegate.execute(callback);
+                } finally {
+                    inExecutor.remove();
+                }
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new SequenceException("序号数据库线程池已关闭", e);
+        }
+        try {
+            return task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancel(task);
+            throw new SequenceException(String.format("等待序号数据库访问超时,timeout:%dms,排队任务数:%d", timeoutMillis, executor.getQueue().size()), e);
+        } catch (InterruptedException e) {
+            cancel(task);
+            Thread.currentThread().interrupt();
+            throw new SequenceException("等待序号数据库访问被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SequenceException("序号数据库访问异常", cause);
+        }
+    }
+
+    private void cancel(FutureTask<?> task) {
+        if (executor.remove(task)) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * 关闭线程池，已经提交的任务执行完
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,20 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+/**
+ * H2的sequence表方言，H2不支持RETURNING，领取号段使用FINAL TABLE查询更新后的行，效果同PostgreSQLDialect，需要H2 2.x（1.4.x不会执行其中的UPDATE）
+ *
+ * @author bridgeli
+ */
+public class H2Dialect extends StandardDialect {
+
+    @Override
+    public String claimSql() {
+        return "SELECT current FROM FINAL TABLE (UPDATE sequence SET current = current + ?,modify_time=CURRENT_TIMESTAMP"
+                + " WHERE name = ? AND current < max AND max - current >= ?)";
+    }
+
+    @Override
+    public boolean isClaimQuery() {
+        return true;
+    }
+}
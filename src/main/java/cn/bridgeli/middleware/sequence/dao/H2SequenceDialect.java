@@ -0,0 +1,42 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import java.sql.SQLException;
+
+/**
+ * H2原生序列方言，用于本地开发和测试，序列元数据按H2 2.x的INFORMATION_SCHEMA列名查询
+ *
+ * @author bridgeli
+ */
+public class H2SequenceDialect implements NativeSequenceDialect {
+
+    /**
+     * H2的序列已存在错误码
+     */
+    private static final int SEQUENCE_ALREADY_EXISTS = 90035;
+
+    @Override
+    public String nextValSql(String sequenceName) {
+        return "SELECT NEXT VALUE FOR \"" + sequenceName + "\"";
+    }
+
+    @Override
+    public String createSql(String sequenceName, long min, long max, long increment, boolean cycle) {
+        return "CREATE SEQUENCE \"" + sequenceName + "\" START WITH " + min + " INCREMENT BY " + increment + " MINVALUE " + min + " MAXVALUE " + max
+                + (cycle ? " CYCLE" : " NO CYCLE") + " NO CACHE";
+    }
+
+    @Override
+    public String queryConfigSql() {
+        return "SELECT INCREMENT, MINIMUM_VALUE, MAXIMUM_VALUE, CYCLE_OPTION = 'YES' FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA = SCHEMA() AND SEQUENCE_NAME = ?";
+    }
+
+    @Override
+    public String queryNamesByPrefixSql() {
+        return "SELECT SEQUENCE_NAME FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA = SCHEMA() AND SEQUENCE_NAME LIKE ? ESCAPE '\\'";
+    }
+
+    @Override
+    public boolean isDuplicate(SQLException e) {
+        return e.getErrorCode() == SEQUENCE_ALREADY_EXISTS;
+    }
+}
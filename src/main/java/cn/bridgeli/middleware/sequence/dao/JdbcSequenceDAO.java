@@ -0,0 +1,413 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import cn.bridgeli.middleware.sequence.core.DuplicateSequenceException;
+import cn.bridgeli.middleware.sequence.core.Sequence;
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于原生JDBC的SequenceDAO，不依赖spring和mybatis，同时实现了SequenceTransaction
+ * <p>
+ * 每次execute从DataSource取一个新连接开启事务，相当于PROPAGATION_REQUIRES_NEW，和调用方的事务互不影响；
+ * 事务内的PreparedStatement按sql缓存，一次取号段的加锁查询和更新各只prepare一次，跨事务的语句缓存交给连接池(例如druid的poolPreparedStatements)。
+ * 在事务外直接调用DAO方法时使用自动提交的临时连接
+ * <p>
+ * sql由{@link SequenceDialect}提供，默认为MySQL方言
+ *
+ * @author bridgeli
+ */
+public class JdbcSequenceDAO implements SequenceDAO, SequenceTransaction {
+
+    @Getter
+    private final DataSource dataSource;
+    @Getter
+    private final SequenceDialect dialect;
+
+    private final String querySql;
+    private final String queryNamesByPrefixSql;
+    private final String updateSql;
+    private final String compareAndSetSql;
+    private final String claimSql;
+    private final String claimedCurrentSql;
+    private final boolean claimQuery;
+    private final String insertSql;
+
+    /**
+     * 是否使用单条语句领取号段，方言不支持时无效
+     */
+    @Getter
+    @Setter
+    private boolean atomicClaim = true;
+
+    private final ThreadLocal<Session> currentSession = new ThreadLocal<Session>();
+
+    public JdbcSequenceDAO(DataSource dataSource) {
+        this(dataSource, new MySQLDialect());
+    }
+
+    public JdbcSequenceDAO(DataSource dataSource, SequenceDialect dialect) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("参数dataSource不能为空！");
+        }
+        if (dialect == null) {
+            throw new IllegalArgumentException("参数dialect不能为空！");
+        }
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+        this.querySql = dialect.querySql();
+        this.queryNamesByPrefixSql = dialect.queryNamesByPrefixSql();
+        this.updateSql = dialect.updateSql();
+        this.compareAndSetSql = dialect.compareAndSetSql();
+        this.claimSql = dialect.claimSql();
+        this.claimedCurrentSql = dialect.claimedCurrentSql();
+        this.claimQuery = dialect.isClaimQuery();
+        this.insertSql = dialect.insertSql();
+    }
+
+    @Override
+    public <T> T execute(Callback<T> callback) {
+        Session outer = currentSession.get();
+        Session session = openSession(false);
+        currentSession.set(session);
+        boolean committed = false;
+        try {
+            T result = callback.doInTransaction();
+            session.connection.commit();
+            committed = true;
+            return result;
+        } catch (SQLException e) {
+            throw new SequenceException("提交序号事务失败", e);
+        } finally {
+            if (!committed) {
+                session.rollback();
+            }
+            if (outer == null) {
+                currentSession.remove();
+            } else {
+                currentSession.set(outer);
+            }
+            session.close();
+        }
+    }
+
+    @Override
+    public Sequence queryBySeqNameForUpdate(String seqName) {
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(querySql, false);
+            ps.setString(1, seqName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next() ? mapRow(rs) : null;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new SequenceException("查询序号失败.name=" + seqName, e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    @Override
+    public List<Sequence> queryBySeqNamesForUpdate(List<String> seqNames) {
+        List<Sequence> sequences = new ArrayList<Sequence>(seqNames.size());
+        if (seqNames.isEmpty()) {
+            return sequences;
+        }
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(dialect.queryBatchSql(seqNames.size()), false);
+            for (int i = 0; i < seqNames.size(); i++) {
+                ps.setString(i + 1, seqNames.get(i));
+            }
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    sequences.add(mapRow(rs));
+                }
+            } finally {
+                rs.close();
+            }
+            return sequences;
+        } catch (SQLException e) {
+            throw new SequenceException("批量查询序号失败.size=" + seqNames.size(), e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    @Override
+    public List<String> queryNamesByPrefix(String prefix) {
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(queryNamesByPrefixSql, false);
+            ps.setString(1, dialect.escapeLike(prefix) + "%");
+            ResultSet rs = ps.executeQuery();
+            try {
+                List<String> names = new ArrayList<String>();
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+                return names;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new SequenceException("按前缀查询序号失败.prefix=" + prefix, e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    @Override
+    public int update(String seqName, long current) {
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(updateSql, false);
+            ps.setLong(1, current);
+            ps.setString(2, seqName);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new SequenceException("更新序号失败.name=" + seqName, e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    @Override
+    public int compareAndSetCurrent(String seqName, long expect, long current) {
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(compareAndSetSql, false);
+            ps.setLong(1, current);
+            ps.setString(2, seqName);
+            ps.setLong(3, expect);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new SequenceException("更新序号失败.name=" + seqName, e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    @Override
+    public int updateBatch(Map<String, Long> currents) {
+        if (currents.isEmpty()) {
+            return 0;
+        }
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(dialect.updateBatchSql(currents.size()), false);
+            int index = 1;
+            for (Map.Entry<String, Long> entry : currents.entrySet()) {
+                ps.setString(index++, entry.getKey());
+                ps.setLong(index++, entry.getValue());
+            }
+            for (String seqName : currents.keySet()) {
+                ps.setString(index++, seqName);
+            }
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new SequenceException("批量更新序号失败.size=" + currents.size(), e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    @Override
+    public Long claimBySeqName(String seqName, long delta) {
+        if (!atomicClaim || claimSql == null) {
+            return null;
+        }
+        Session session = getSession();
+        try {
+            if (claimQuery) {
+                return claimByQuery(session, seqName, delta);
+            }
+            PreparedStatement ps = session.prepare(claimSql, true);
+            ps.setLong(1, delta);
+            ps.setString(2, seqName);
+            ps.setLong(3, delta);
+            if (ps.executeUpdate() != 1) {
+                return null;
+            }
+            ResultSet rs = ps.getGeneratedKeys();
+            try {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            } finally {
+                rs.close();
+            }
+            // 驱动没有通过getGeneratedKeys返回时，同一连接上再查一次，current已经增加，不能返回null
+            rs = session.prepare(claimedCurrentSql, false).executeQuery();
+            try {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            } finally {
+                rs.close();
+            }
+            throw new SequenceException("领取号段后无法获取数据库中的current.name=" + seqName);
+        } catch (SQLException e) {
+            throw new SequenceException("领取号段失败.name=" + seqName, e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * 领取语句直接返回领取后的current，没有返回行说明剩余不足，返回null
+     */
+    private Long claimByQuery(Session session, String seqName, long delta) throws SQLException {
+        PreparedStatement ps = session.prepare(claimSql, false);
+        ps.setLong(1, delta);
+        ps.setString(2, seqName);
+        ps.setLong(3, delta);
+        ResultSet rs = ps.executeQuery();
+        try {
+            return rs.next() ? rs.getLong(1) : null;
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Override
+    public int insert(Sequence sequence) {
+        if (null != sequence && (sequence.getStep() < 1 || sequence.getCount() < 1)) {
+            throw new SequenceException("序号生成配置异常.name=" + sequence.getName());
+        }
+        Session session = getSession();
+        try {
+            PreparedStatement ps = session.prepare(insertSql, false);
+            ps.setString(1, sequence.getName());
+            ps.setLong(2, sequence.getCurrent());
+            ps.setLong(3, sequence.getMax());
+            ps.setLong(4, sequence.getMin());
+            ps.setLong(5, sequence.getStep());
+            ps.setLong(6, sequence.getCount());
+            ps.setString(7, sequence.getLoop());
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            if (dialect.isDuplicateKey(e)) {
+                throw new DuplicateSequenceException("序号已经存在.name=" + sequence.getName(), e);
+            }
+            throw new SequenceException("新建序号失败.name=" + sequence.getName(), e);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    private static Sequence mapRow(ResultSet rs) throws SQLException {
+        Sequence sequenceRangeDB = new Sequence();
+        sequenceRangeDB.setName(rs.getString(1));
+        sequenceRangeDB.setCurrent(rs.getLong(2));
+        sequenceRangeDB.setMax(rs.getLong(3));
+        sequenceRangeDB.setMin(rs.getLong(4));
+        sequenceRangeDB.setStep(rs.getLong(5));
+        sequenceRangeDB.setCount(rs.getLong(6));
+        sequenceRangeDB.setLoop(rs.getString(7));
+        if (sequenceRangeDB.getStep() < 1 || sequenceRangeDB.getCount() < 1) {
+            throw new SequenceException("序号生成配置异常.name=" + sequenceRangeDB.getName());
+        }
+        return sequenceRangeDB;
+    }
+
+    private Session getSession() {
+        Session session = currentSession.get();
+        return session != null ? session : openSession(true);
+    }
+
+    private void releaseSession(Session session) {
+        if (session.autoCommit) {
+            session.close();
+        }
+    }
+
+    private Session openSession(boolean autoCommit) {
+        try {
+            return new Session(dataSource.getConnection(), autoCommit);
+        } catch (SQLException e) {
+            throw new SequenceException("获取序号数据库连接失败", e);
+        }
+    }
+
+    /**
+     * 一个连接及其上已经prepare的语句
+     */
+    private static class Session {
+
+        private final Connection connection;
+        private final boolean autoCommit;
+        private final boolean originalAutoCommit;
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>(4);
+
+        Session(Connection connection, boolean autoCommit) throws SQLException {
+            this.connection = connection;
+            this.autoCommit = autoCommit;
+            try {
+                this.originalAutoCommit = connection.getAutoCommit();
+                if (originalAutoCommit != autoCommit) {
+                    connection.setAutoCommit(autoCommit);
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        PreparedStatement prepare(String sql, boolean returnGeneratedKeys) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = returnGeneratedKeys ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : connection.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        void rollback() {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                // 回滚失败时连接关闭后由数据库回滚，保留原始异常
+            }
+        }
+
+        void close() {
+            for (PreparedStatement ps : statements.values()) {
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                    // 忽略，关闭连接时一并释放
+                }
+            }
+            statements.clear();
+            try {
+                if (originalAutoCommit != autoCommit) {
+                    connection.setAutoCommit(originalAutoCommit);
+                }
+            } catch (SQLException e) {
+                // 忽略，连接池归还连接时会重置
+            } finally {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    // 忽略
+                }
+            }
+        }
+    }
+}
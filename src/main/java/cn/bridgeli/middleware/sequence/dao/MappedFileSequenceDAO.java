@@ -0,0 +1,469 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import cn.bridgeli.middleware.sequence.core.DuplicateSequenceException;
+import cn.bridgeli.middleware.sequence.core.Sequence;
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于内存映射文件的SequenceDAO，同时实现了SequenceTransaction，用于没有数据库的单机部署
+ * <p>
+ * 文件由64字节的文件头和定长的序号记录组成，记录中除了sequence表的各列，还有一个持久化的高水位mark：
+ * current前进到mark之外时先把mark推进markSegments个号段并force到磁盘，再写current，
+ * 其余的current更新只写映射内存，不逐次fsync；重新打开文件时current从mark开始，最多浪费markSegments个号段，不会重复发号。
+ * <p>
+ * 每次execute在进程内加锁后再对文件加锁，同一台机器上的多个进程可以共用一个文件；同一个jvm内一个文件只能打开一次
+ *
+ * @author bridgeli
+ */
+public class MappedFileSequenceDAO implements SequenceDAO, SequenceTransaction, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
+
+    private static final int MAGIC = 0x53455146;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int COUNT_OFFSET = 8;
+    private static final int RECORD_SIZE = 192;
+    private static final int NAME_BYTES = 126;
+    private static final int CURRENT_OFFSET = 128;
+    private static final int MAX_OFFSET = 136;
+    private static final int MIN_OFFSET = 144;
+    private static final int STEP_OFFSET = 152;
+    private static final int COUNT_FIELD_OFFSET = 160;
+    private static final int MARK_OFFSET = 168;
+    private static final int LOOP_OFFSET = 176;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int DEFAULT_MARK_SEGMENTS = 16;
+
+    /**
+     * 本jvm已经打开的文件，文件锁属于进程，同一个jvm内重复加锁会抛OverlappingFileLockException
+     */
+    private static final Set<String> OPENED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Getter
+    private final File file;
+    private final String path;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * mark每次推进的号段个数
+     */
+    @Getter
+    private final int markSegments;
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private FileLock fileLock;
+    private volatile boolean closed;
+    /**
+     * 序号名到记录下标，其他进程新增的记录在加锁时补充
+     */
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private int indexed;
+
+    public MappedFileSequenceDAO(File file) {
+        this(file, DEFAULT_MARK_SEGMENTS);
+    }
+
+    public MappedFileSequenceDAO(File file, int markSegments) {
+        if (file == null) {
+            throw new IllegalArgumentException("参数file不能为空！");
+        }
+        if (markSegments <= 0) {
+            throw new IllegalArgumentException("markSegments应该大于0");
+        }
+        this.file = file;
+        this.markSegments = markSegments;
+        try {
+            this.path = file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new SequenceException("序号文件路径异常.file=" + file, e);
+        }
+        if (!OPENED.add(path)) {
+            throw new SequenceException("序号文件已经在本jvm中打开.file=" + path);
+        }
+        try {
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+        } catch (IOException e) {
+            OPENED.remove(path);
+            throw new SequenceException("打开序号文件失败.file=" + path, e);
+        }
+        boolean opened = false;
+        try {
+            lock();
+            try {
+                if (channel.size() == 0) {
+                    map(HEADER_SIZE + (long) INITIAL_CAPACITY * RECORD_SIZE);
+                    buffer.putInt(0, MAGIC);
+                    buffer.putInt(4, VERSION);
+                    buffer.putInt(COUNT_OFFSET, 0);
+                    buffer.force();
+                } else {
+                    map(channel.size());
+                    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                        throw new SequenceException("不是序号文件或者版本不兼容.file=" + path);
+                    }
+                }
+                refreshIndex();
+                recover();
+                opened = true;
+            } finally {
+                unlock();
+            }
+        } catch (IOException e) {
+            throw new SequenceException("初始化序号文件失败.file=" + path, e);
+        } finally {
+            if (!opened) {
+                closeQuietly();
+            }
+        }
+    }
+
+    @Override
+    public <T> T execute(Callback<T> callback) {
+        lock();
+        try {
+            return callback.doInTransaction();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public Sequence queryBySeqNameForUpdate(String seqName) {
+        lock();
+        try {
+            Integer slot = index.get(seqName);
+            return slot == null ? null : read(slot);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public List<Sequence> queryBySeqNamesForUpdate(List<String> seqNames) {
+        List<String> sorted = new ArrayList<String>(seqNames);
+        Collections.sort(sorted);
+        lock();
+        try {
+            List<Sequence> sequences = new ArrayList<Sequence>(sorted.size());
+            for (String seqName : sorted) {
+                Integer slot = index.get(seqName);
+                if (slot != null) {
+                    sequences.add(read(slot));
+                }
+            }
+            return sequences;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public List<String> queryNamesByPrefix(String prefix) {
+        lock();
+        try {
+            List<String> names = new ArrayList<String>();
+            for (String seqName : index.keySet()) {
+                if (seqName.startsWith(prefix)) {
+                    names.add(seqName);
+                }
+            }
+            Collections.sort(names);
+            return names;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public int update(String seqName, long current) {
+        lock();
+        try {
+            Integer slot = index.get(seqName);
+            if (slot == null) {
+                return 0;
+            }
+            advance(slot, current);
+            return 1;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * 归还号段时mark一起退回，重新打开文件后从归还的位置继续
+     */
+    @Override
+    public int compareAndSetCurrent(String seqName, long expect, long current) {
+        lock();
+        try {
+            Integer slot = index.get(seqName);
+            if (slot == null || buffer.getLong(offset(slot) + CURRENT_OFFSET) != expect) {
+                return 0;
+            }
+            int offset = offset(slot);
+            buffer.putLong(offset + CURRENT_OFFSET, current);
+            buffer.putLong(offset + MARK_OFFSET, current);
+            return 1;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public int updateBatch(Map<String, Long> currents) {
+        lock();
+        try {
+            int updated = 0;
+            for (Map.Entry<String, Long> entry : currents.entrySet()) {
+                updated += update(entry.getKey(), entry.getValue());
+            }
+            return updated;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public Long claimBySeqName(String seqName, long delta) {
+        lock();
+        try {
+            Integer slot = index.get(seqName);
+            if (slot == null) {
+                return null;
+            }
+            int offset = offset(slot);
+            long current = buffer.getLong(offset + CURRENT_OFFSET);
+            long max = buffer.getLong(offset + MAX_OFFSET);
+            if (current >= max || max - current < delta) {
+                return null;
+            }
+            advance(slot, current + delta);
+            return current + delta;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public int insert(Sequence sequence) {
+        if (sequence.getStep() < 1 || sequence.getCount() < 1) {
+            throw new SequenceException("序号生成配置异常.name=" + sequence.getName());
+        }
+        byte[] name = sequence.getName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > NAME_BYTES) {
+            throw new SequenceException("序号名称过长.name=" + sequence.getName());
+        }
+        lock();
+        try {
+            if (index.containsKey(sequence.getName())) {
+                throw new DuplicateSequenceException("序号已经存在.name=" + sequence.getName());
+            }
+            int slot = buffer.getInt(COUNT_OFFSET);
+            if (slot >= capacity) {
+                map(HEADER_SIZE + (long) capacity * 2 * RECORD_SIZE);
+            }
+            int offset = offset(slot);
+            buffer.putShort(offset, (short) name.length);
+            for (int i = 0; i < name.length; i++) {
+                buffer.put(offset + 2 + i, name[i]);
+            }
+            buffer.putLong(offset + CURRENT_OFFSET, sequence.getCurrent());
+            buffer.putLong(offset + MAX_OFFSET, sequence.getMax());
+            buffer.putLong(offset + MIN_OFFSET, sequence.getMin());
+            buffer.putLong(offset + STEP_OFFSET, sequence.getStep());
+            buffer.putLong(offset + COUNT_FIELD_OFFSET, sequence.getCount());
+            buffer.putLong(offset + MARK_OFFSET, sequence.getCurrent());
+            buffer.put(offset + LOOP_OFFSET, (byte) (Sequence.LOOP_YES.equals(sequence.getLoop()) ? 'Y' : 'N'));
+            // 记录写完并落盘后再增加记录数并落盘，新记录丢失会导致重建后重复发号
+            buffer.force();
+            buffer.putInt(COUNT_OFFSET, slot + 1);
+            buffer.force();
+            index.put(sequence.getName(), slot);
+            indexed = slot + 1;
+            return 1;
+        } catch (IOException e) {
+            throw new SequenceException("扩展序号文件失败.file=" + path, e);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * 把最后的current落盘并释放文件
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer.force();
+            closeQuietly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入新的current，越过mark时先推进mark并落盘
+     */
+    private void advance(int slot, long current) {
+        int offset = offset(slot);
+        long previous = buffer.getLong(offset + CURRENT_OFFSET);
+        long mark = buffer.getLong(offset + MARK_OFFSET);
+        // 循环使用时current会回到min，mark随之重新计算
+        if (current > mark || current < previous) {
+            long max = buffer.getLong(offset + MAX_OFFSET);
+            long reserve;
+            try {
+                reserve = Math.multiplyExact(Math.multiplyExact(buffer.getLong(offset + COUNT_FIELD_OFFSET), buffer.getLong(offset + STEP_OFFSET)), markSegments);
+            } catch (ArithmeticException e) {
+                reserve = Long.MAX_VALUE;
+            }
+            long newMark = max - current <= reserve ? Math.max(max, current) : current + reserve;
+            buffer.putLong(offset + MARK_OFFSET, newMark);
+            buffer.force();
+        }
+        buffer.putLong(offset + CURRENT_OFFSET, current);
+    }
+
+    /**
+     * 上次没有正常关闭时，current可能还停留在最后一次落盘的位置之前，从mark继续
+     */
+    private void recover() {
+        int recovered = 0;
+        for (int slot = 0; slot < indexed; slot++) {
+            int offset = offset(slot);
+            long current = buffer.getLong(offset + CURRENT_OFFSET);
+            long mark = buffer.getLong(offset + MARK_OFFSET);
+            if (current < mark) {
+                buffer.putLong(offset + CURRENT_OFFSET, mark);
+                recovered++;
+            }
+        }
+        if (recovered > 0) {
+            buffer.force();
+            LOGGER.info(String.format("序号文件%s恢复%d个序号,从持久化的高水位继续", path, recovered));
+        }
+    }
+
+    private Sequence read(int slot) {
+        int offset = offset(slot);
+        Sequence seqFromDB = new Sequence();
+        seqFromDB.setName(readName(offset));
+        seqFromDB.setCurrent(buffer.getLong(offset + CURRENT_OFFSET));
+        seqFromDB.setMax(buffer.getLong(offset + MAX_OFFSET));
+        seqFromDB.setMin(buffer.getLong(offset + MIN_OFFSET));
+        seqFromDB.setStep(buffer.getLong(offset + STEP_OFFSET));
+        seqFromDB.setCount(buffer.getLong(offset + COUNT_FIELD_OFFSET));
+        seqFromDB.setLoop(buffer.get(offset + LOOP_OFFSET) == 'Y' ? Sequence.LOOP_YES : Sequence.LOOP_NO);
+        return seqFromDB;
+    }
+
+    private String readName(int offset) {
+        byte[] name = new byte[buffer.getShort(offset)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        capacity = (int) ((size - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * 进程内加锁，最外层再加文件锁，并补充其他进程新增的记录
+     */
+    private void lock() {
+        lock.lock();
+        if (lock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            if (closed) {
+                throw new SequenceException("序号文件已关闭.file=" + path);
+            }
+            fileLock = channel.lock(0, HEADER_SIZE, false);
+            if (buffer != null) {
+                refreshIndex();
+            }
+        } catch (IOException e) {
+            lock.unlock();
+            throw new SequenceException("序号文件加锁失败.file=" + path, e);
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock() {
+        try {
+            if (lock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("序号文件释放锁失败.file=%s", path), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refreshIndex() throws IOException {
+        int count = buffer.getInt(COUNT_OFFSET);
+        if (count > capacity) {
+            map(channel.size());
+        }
+        for (int slot = indexed; slot < count; slot++) {
+            index.put(readName(offset(slot)), slot);
+        }
+        indexed = count;
+    }
+
+    private void closeQuietly() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            LOGGER.warn(String.format("关闭序号文件失败.file=%s", path), e);
+        } finally {
+            OPENED.remove(path);
+        }
+    }
+}
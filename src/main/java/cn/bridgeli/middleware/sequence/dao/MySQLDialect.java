@@ -0,0 +1,95 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+/**
+ * MySQL方言，JdbcSequenceDAO的默认方言，领取号段使用LAST_INSERT_ID(expr)
+ *
+ * @author bridgeli
+ */
+public class MySQLDialect implements SequenceDialect {
+
+    private static final String BASE_COLUMN = "`name`,`current`,`max`,`min`,`step`,`count`,`loop`";
+
+    @Override
+    public String querySql() {
+        return "SELECT " + BASE_COLUMN + " FROM sequence where name = ? for update";
+    }
+
+    @Override
+    public String queryBatchSql(int size) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(BASE_COLUMN).append(" FROM sequence where name in (");
+        appendPlaceholders(sql, size);
+        return sql.append(") order by name for update").toString();
+    }
+
+    @Override
+    public String queryNamesByPrefixSql() {
+        return "SELECT name FROM sequence where name like ?";
+    }
+
+    @Override
+    public String updateSql() {
+        return "update sequence set current = ?,modify_time=now() where name=?";
+    }
+
+    @Override
+    public String compareAndSetSql() {
+        return "update sequence set current = ?,modify_time=now() where name=? and current=?";
+    }
+
+    @Override
+    public String updateBatchSql(int size) {
+        StringBuilder sql = new StringBuilder("update sequence set current = case name");
+        for (int i = 0; i < size; i++) {
+            sql.append(" when ? then ?");
+        }
+        sql.append(" end,modify_time=now() where name in (");
+        appendPlaceholders(sql, size);
+        return sql.append(')').toString();
+    }
+
+    @Override
+    public String claimSql() {
+        return "update sequence set current = LAST_INSERT_ID(current + ?),modify_time=now() where name=? and current < max and max - current >= ?";
+    }
+
+    @Override
+    public boolean isClaimQuery() {
+        return false;
+    }
+
+    @Override
+    public String claimedCurrentSql() {
+        return "select LAST_INSERT_ID()";
+    }
+
+    @Override
+    public String insertSql() {
+        return "insert into sequence(" + BASE_COLUMN + ",`modify_time`,`create_time`) values(?,?,?,?,?,?,?,now(),now())";
+    }
+
+    /**
+     * 转义符为MySQL默认的反斜杠
+     */
+    @Override
+    public String escapeLike(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * SQLState以23开头为违反完整性约束，MySQL的主键重复错误码为1062
+     */
+    @Override
+    public boolean isDuplicateKey(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException || e.getErrorCode() == 1062
+                || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+    }
+
+    static void appendPlaceholders(StringBuilder sql, int size) {
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+    }
+}
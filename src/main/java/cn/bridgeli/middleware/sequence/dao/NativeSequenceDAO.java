@@ -0,0 +1,272 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import cn.bridgeli.middleware.sequence.core.DuplicateSequenceException;
+import cn.bridgeli.middleware.sequence.core.Sequence;
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import lombok.Getter;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 基于数据库原生序列的SequenceDAO，同时实现了SequenceTransaction
+ * <p>
+ * 一个序号对应一个同名的原生序列，INCREMENT BY即号段长度count，MAXVALUE为max-count；一次nextval领取[value, value+count)，
+ * 不需要sequence表、行锁和事务，execute直接执行回调，每条语句使用自动提交的连接
+ * <p>
+ * 原生序列只能整段前进：步长固定为1，update只能确认本次回调中nextval领取的号段，不能越过号段结束值，
+ * 因此号段长度必须等于count，不支持自适应号段长度、号段环一次补多个号段和超过count的批量预留；
+ * compareAndSetCurrent始终返回0，关闭时未使用的号段作废；insert新建序列后立即领取第一个号段，并把参数的current改为号段起始值
+ *
+ * @author bridgeli
+ */
+public class NativeSequenceDAO implements SequenceDAO, SequenceTransaction {
+
+    private static final SequenceDialect LIKE_ESCAPE = new StandardDialect();
+
+    @Getter
+    private final DataSource dataSource;
+    @Getter
+    private final NativeSequenceDialect dialect;
+
+    /**
+     * 原生序列的配置，创建后不变，按序列名缓存
+     */
+    private final ConcurrentMap<String, Sequence> configs = new ConcurrentHashMap<String, Sequence>();
+    /**
+     * 当前回调中各序列nextval领取的号段结束值
+     */
+    private final ThreadLocal<Map<String, Long>> claimed = new ThreadLocal<Map<String, Long>>();
+
+    public NativeSequenceDAO(DataSource dataSource, NativeSequenceDialect dialect) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("参数dataSource不能为空！");
+        }
+        if (dialect == null) {
+            throw new IllegalArgumentException("参数dialect不能为空！");
+        }
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+    }
+
+    @Override
+    public <T> T execute(Callback<T> callback) {
+        Map<String, Long> outer = claimed.get();
+        claimed.set(new HashMap<String, Long>(4));
+        try {
+            return callback.doInTransaction();
+        } finally {
+            if (outer == null) {
+                claimed.remove();
+            } else {
+                claimed.set(outer);
+            }
+        }
+    }
+
+    /**
+     * 领取一个号段，返回的current为号段起始值
+     */
+    @Override
+    public Sequence queryBySeqNameForUpdate(String seqName) {
+        Sequence config = getConfig(seqName);
+        if (config == null) {
+            return null;
+        }
+        long start = nextVal(seqName);
+        Map<String, Long> ends = claimed.get();
+        if (ends != null) {
+            ends.put(seqName, start + config.getCount());
+        }
+        Sequence seqFromDB = copy(config);
+        seqFromDB.setCurrent(start);
+        return seqFromDB;
+    }
+
+    @Override
+    public List<Sequence> queryBySeqNamesForUpdate(List<String> seqNames) {
+        List<String> sorted = new ArrayList<String>(seqNames);
+        Collections.sort(sorted);
+        List<Sequence> sequences = new ArrayList<Sequence>(sorted.size());
+        for (String seqName : sorted) {
+            Sequence seqFromDB = queryBySeqNameForUpdate(seqName);
+            if (seqFromDB != null) {
+                sequences.add(seqFromDB);
+            }
+        }
+        return sequences;
+    }
+
+    @Override
+    public List<String> queryNamesByPrefix(String prefix) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(dialect.queryNamesByPrefixSql())) {
+            ps.setString(1, LIKE_ESCAPE.escapeLike(prefix) + "%");
+            List<String> names = new ArrayList<String>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+            return names;
+        } catch (SQLException e) {
+            throw new SequenceException("按前缀查询原生序列失败.prefix=" + prefix, e);
+        }
+    }
+
+    /**
+     * 原生序列已经在nextval时前进，这里只校验号段没有越过本次领取的范围
+     */
+    @Override
+    public int update(String seqName, long current) {
+        Map<String, Long> ends = claimed.get();
+        Long end = ends == null ? null : ends.get(seqName);
+        if (end == null) {
+            throw new SequenceException("原生序列不能直接修改current.name=" + seqName);
+        }
+        if (current > end) {
+            throw new SequenceException(String.format("原生序列一次只能领取INCREMENT BY个序号,需要%d,领取到%d.name=%s", current, end, seqName));
+        }
+        return 1;
+    }
+
+    @Override
+    public int compareAndSetCurrent(String seqName, long expect, long current) {
+        return 0;
+    }
+
+    @Override
+    public int updateBatch(Map<String, Long> currents) {
+        for (Map.Entry<String, Long> entry : currents.entrySet()) {
+            update(entry.getKey(), entry.getValue());
+        }
+        return currents.size();
+    }
+
+    /**
+     * delta等于INCREMENT BY时一次nextval领取，否则返回null
+     */
+    @Override
+    public Long claimBySeqName(String seqName, long delta) {
+        Sequence config = getConfig(seqName);
+        if (config == null || delta != config.getCount()) {
+            return null;
+        }
+        return nextVal(seqName) + delta;
+    }
+
+    @Override
+    public int insert(Sequence sequence) {
+        String seqName = checkName(sequence.getName());
+        if (sequence.getStep() != 1 || sequence.getCount() < 1) {
+            throw new SequenceException("原生序列只支持步长1且count大于0.name=" + seqName);
+        }
+        long maxValue = sequence.getMax() - sequence.getCount();
+        if (maxValue < sequence.getMin()) {
+            throw new SequenceException("原生序列的序号范围小于count.name=" + seqName);
+        }
+        String sql = dialect.createSql(seqName, sequence.getMin(), maxValue, sequence.getCount(), Sequence.LOOP_YES.equals(sequence.getLoop()));
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            if (dialect.isDuplicate(e)) {
+                throw new DuplicateSequenceException("原生序列已经存在.name=" + seqName, e);
+            }
+            throw new SequenceException("新建原生序列失败.name=" + seqName, e);
+        }
+        // 调用方会直接使用sequence的current作为第一个号段，其他jvm可能已经领取了起始号段，以nextval的结果为准
+        Sequence config = queryBySeqNameForUpdate(seqName);
+        if (config == null) {
+            throw new SequenceException("新建的原生序列不存在.name=" + seqName);
+        }
+        sequence.setCurrent(config.getCurrent());
+        return 1;
+    }
+
+    private Sequence getConfig(String seqName) {
+        Sequence config = configs.get(seqName);
+        if (config != null) {
+            return config;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(dialect.queryConfigSql())) {
+            ps.setString(1, seqName);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                long increment = rs.getLong(1);
+                long maxValue = rs.getLong(3);
+                config = new Sequence();
+                config.setName(seqName);
+                config.setMin(rs.getLong(2));
+                // max不包含，最后一次nextval领取的号段结束于MAXVALUE+INCREMENT
+                config.setMax(maxValue > Long.MAX_VALUE - increment ? Long.MAX_VALUE : maxValue + increment);
+                config.setStep(1);
+                config.setCount(increment);
+                config.setLoop(rs.getBoolean(4) ? Sequence.LOOP_YES : Sequence.LOOP_NO);
+            }
+        } catch (SQLException e) {
+            throw new SequenceException("查询原生序列配置失败.name=" + seqName, e);
+        }
+        if (config.getCount() < 1) {
+            throw new SequenceException("原生序列INCREMENT BY需要大于0.name=" + seqName);
+        }
+        configs.put(seqName, config);
+        return config;
+    }
+
+    private long nextVal(String seqName) {
+        String sql = dialect.nextValSql(checkName(seqName));
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            long value;
+            try (ResultSet rs = statement.executeQuery(sql)) {
+                if (!rs.next()) {
+                    throw new SequenceException("原生序列没有返回值.name=" + seqName);
+                }
+                value = rs.getLong(1);
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            return value;
+        } catch (SQLException e) {
+            throw new SequenceException("原生序列领取号段失败.name=" + seqName, e);
+        }
+    }
+
+    /**
+     * 序列名直接拼进sql，不能包含引号
+     */
+    private static String checkName(String seqName) {
+        if (seqName == null || seqName.indexOf('"') >= 0 || seqName.indexOf('\'') >= 0) {
+            throw new SequenceException("原生序列名不能包含引号.name=" + seqName);
+        }
+        return seqName;
+    }
+
+    private static Sequence copy(Sequence config) {
+        Sequence seqFromDB = new Sequence();
+        seqFromDB.setName(config.getName());
+        seqFromDB.setMin(config.getMin());
+        seqFromDB.setMax(config.getMax());
+        seqFromDB.setStep(config.getStep());
+        seqFromDB.setCount(config.getCount());
+        seqFromDB.setLoop(config.getLoop());
+        return seqFromDB;
+    }
+}
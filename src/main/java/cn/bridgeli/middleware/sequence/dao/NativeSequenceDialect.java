@@ -0,0 +1,40 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import java.sql.SQLException;
+
+/**
+ * 数据库原生序列的方言，提供NativeSequenceDAO使用的sql
+ * <p>
+ * 一个序号对应一个原生序列，INCREMENT BY为号段长度，一次nextval即领取一个号段，不需要行锁和事务
+ *
+ * @author bridgeli
+ */
+public interface NativeSequenceDialect {
+
+    /**
+     * 取原生序列下一个值的查询，返回一行一列
+     *
+     * @param sequenceName 已经校验过不含引号的序列名
+     */
+    String nextValSql(String sequenceName);
+
+    /**
+     * 新建原生序列，min为START WITH和MINVALUE
+     */
+    String createSql(String sequenceName, long min, long max, long increment, boolean cycle);
+
+    /**
+     * 按序列名查询原生序列的配置，参数为序列名，列顺序为increment,min,max,cycle
+     */
+    String queryConfigSql();
+
+    /**
+     * 按前缀查询当前schema下的序列名，参数为转义后加上通配符的前缀，转义符为反斜杠
+     */
+    String queryNamesByPrefixSql();
+
+    /**
+     * 新建序列时是否因为序列已经存在而失败
+     */
+    boolean isDuplicate(SQLException e);
+}
@@ -0,0 +1,20 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+/**
+ * PostgreSQL的sequence表方言，领取号段使用UPDATE ... RETURNING，一条语句完成加锁、更新和返回领取后的current
+ *
+ * @author bridgeli
+ */
+public class PostgreSQLDialect extends StandardDialect {
+
+    @Override
+    public String claimSql() {
+        return "UPDATE sequence SET current = current + ?,modify_time=CURRENT_TIMESTAMP WHERE name = ? AND current < max AND max - current >= ?"
+                + " RETURNING current";
+    }
+
+    @Override
+    public boolean isClaimQuery() {
+        return true;
+    }
+}
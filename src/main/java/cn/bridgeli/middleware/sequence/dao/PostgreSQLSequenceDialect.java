@@ -0,0 +1,42 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import java.sql.SQLException;
+
+/**
+ * PostgreSQL原生序列方言，需要PostgreSQL 10及以上(pg_sequences视图)
+ *
+ * @author bridgeli
+ */
+public class PostgreSQLSequenceDialect implements NativeSequenceDialect {
+
+    /**
+     * duplicate_table，序列已存在
+     */
+    private static final String DUPLICATE_TABLE = "42P07";
+
+    @Override
+    public String nextValSql(String sequenceName) {
+        return "SELECT nextval('\"" + sequenceName + "\"')";
+    }
+
+    @Override
+    public String createSql(String sequenceName, long min, long max, long increment, boolean cycle) {
+        return "CREATE SEQUENCE \"" + sequenceName + "\" INCREMENT BY " + increment + " MINVALUE " + min + " MAXVALUE " + max + " START WITH " + min
+                + (cycle ? " CYCLE" : " NO CYCLE") + " CACHE 1";
+    }
+
+    @Override
+    public String queryConfigSql() {
+        return "SELECT increment_by, min_value, max_value, cycle FROM pg_sequences WHERE schemaname = current_schema() AND sequencename = ?";
+    }
+
+    @Override
+    public String queryNamesByPrefixSql() {
+        return "SELECT sequencename FROM pg_sequences WHERE schemaname = current_schema() AND sequencename LIKE ? ESCAPE '\\'";
+    }
+
+    @Override
+    public boolean isDuplicate(SQLException e) {
+        return DUPLICATE_TABLE.equals(e.getSQLState());
+    }
+}
@@ -2,6 +2,9 @@ package cn.bridgeli.middleware.sequence.dao;
 
 import cn.bridgeli.middleware.sequence.core.Sequence;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author bridgeli
  */
@@ -15,16 +18,53 @@ public interface SequenceDAO {
      */
     Sequence queryBySeqNameForUpdate(String seqName);
 
+    /**
+     * 一条语句加锁查询多个Seq配置，按name排序加锁，避免并发批量查询时死锁
+     *
+     * @return 存在的记录，不存在的name不返回
+     */
+    List<Sequence> queryBySeqNamesForUpdate(List<String> seqNames);
+
+    /**
+     * 查询以prefix开头的所有Seq名称
+     */
+    List<String> queryNamesByPrefix(String prefix);
+
     /**
      * 更新当前序号
      */
     int update(String seqName, long current);
 
+    /**
+     * 数据库中的current等于expect时才更新为current
+     *
+     * @return 更新的行数，0表示current已经被其他jvm修改
+     */
+    int compareAndSetCurrent(String seqName, long expect, long current);
+
+    /**
+     * 一条语句更新多个序号的当前值
+     *
+     * @param currents seqName -> current
+     */
+    int updateBatch(Map<String, Long> currents);
+
+    /**
+     * 单条语句原子地把current增加delta，仅当增加后不超过max时生效，返回增加后的current
+     * <p>
+     * 例如MySQL的 update ... set current = LAST_INSERT_ID(current + delta) 配合getGeneratedKeys，或者支持的数据库上的 update ... returning current，
+     * 行锁只在这一条语句内持有，不需要先加锁查询
+     *
+     * @return 增加后的current；记录不存在、剩余不足delta或者不支持时返回null，由调用方改为加锁查询的方式
+     */
+    Long claimBySeqName(String seqName, long delta);
+
     /**
      * 新建序号配置
      *
      * @param sequence
      * @return
+     * @throws cn.bridgeli.middleware.sequence.core.DuplicateSequenceException 其他jvm已经创建了同名序号
      */
     int insert(Sequence sequence);
 }
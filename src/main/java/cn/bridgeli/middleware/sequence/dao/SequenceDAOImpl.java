@@ -1,16 +1,27 @@
 package cn.bridgeli.middleware.sequence.dao;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import cn.bridgeli.middleware.sequence.core.DuplicateSequenceException;
 import cn.bridgeli.middleware.sequence.core.Sequence;
 import org.mybatis.spring.support.SqlSessionDaoSupport;
+import org.springframework.dao.DuplicateKeyException;
 
 /**
+ * 基于mybatis的SequenceDAO，需要配合SpringSequenceTransaction使用
+ *
  * @author bridgeli
  */
 public class SequenceDAOImpl extends SqlSessionDaoSupport implements SequenceDAO {
 
+    private static final String CLAIM_STATEMENT = "Sequence.claim";
+    /**
+     * sequence.xml中的sql为MySQL语法，like的转义与之一致
+     */
+    private static final MySQLDialect MYSQL_DIALECT = new MySQLDialect();
+
     @Override
     public Sequence queryBySeqNameForUpdate(String seqName) {
         Sequence sequenceRangeDB = (Sequence) getSqlSession().selectOne("Sequence.queryBySeqName", seqName);
@@ -20,6 +31,41 @@ public class SequenceDAOImpl extends SqlSessionDaoSupport implements SequenceDAO
         return sequenceRangeDB;
     }
 
+    @Override
+    public List<Sequence> queryBySeqNamesForUpdate(List<String> seqNames) {
+        List<Sequence> sequences = getSqlSession().selectList("Sequence.queryBySeqNames", seqNames);
+        for (Sequence sequenceRangeDB : sequences) {
+            if (sequenceRangeDB.getStep() < 1 || sequenceRangeDB.getCount() < 1) {
+                throw new RuntimeException("序号生成配置异常.name=" + sequenceRangeDB.getName());
+            }
+        }
+        return sequences;
+    }
+
+    @Override
+    public List<String> queryNamesByPrefix(String prefix) {
+        return getSqlSession().selectList("Sequence.queryNamesByPrefix", MYSQL_DIALECT.escapeLike(prefix) + "%");
+    }
+
+    @Override
+    public int compareAndSetCurrent(String seqName, long expect, long current) {
+        Map<String, Object> param = new HashMap<String, Object>();
+        param.put("current", current);
+        param.put("expect", expect);
+        param.put("name", seqName);
+        return getSqlSession().update("Sequence.compareAndSetCurrent", param);
+    }
+
+    @Override
+    public int updateBatch(Map<String, Long> currents) {
+        if (currents.isEmpty()) {
+            return 0;
+        }
+        Map<String, Object> param = new HashMap<String, Object>();
+        param.put("currents", currents);
+        return getSqlSession().update("Sequence.updateBatch", param);
+    }
+
     @Override
     public int update(String seqName, long current) {
         Map<String, Object> param = new HashMap<String, Object>();
@@ -28,12 +74,30 @@ public class SequenceDAOImpl extends SqlSessionDaoSupport implements SequenceDAO
         return getSqlSession().update("Sequence.update", param);
     }
 
+    @Override
+    public Long claimBySeqName(String seqName, long delta) {
+        if (!getSqlSession().getConfiguration().hasStatement(CLAIM_STATEMENT)) {
+            return null;
+        }
+        Map<String, Object> param = new HashMap<String, Object>();
+        param.put("delta", delta);
+        param.put("name", seqName);
+        if (getSqlSession().update(CLAIM_STATEMENT, param) != 1) {
+            return null;
+        }
+        Object current = param.get("current");
+        return current == null ? null : ((Number) current).longValue();
+    }
+
     @Override
     public int insert(Sequence sequence) {
         if (null != sequence && (sequence.getStep() < 1 || sequence.getCount() < 1)) {
             throw new RuntimeException("序号生成配置异常.name=" + sequence.getName());
         }
-        return getSqlSession().insert("Sequence.insert", sequence);
+        try {
+            return getSqlSession().insert("Sequence.insert", sequence);
+        } catch (DuplicateKeyException e) {
+            throw new DuplicateSequenceException("序号已经存在.name=" + sequence.getName(), e);
+        }
     }
-
 }
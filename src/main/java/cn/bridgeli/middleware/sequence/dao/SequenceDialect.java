@@ -0,0 +1,76 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import java.sql.SQLException;
+
+/**
+ * sequence表方式的数据库方言，提供JdbcSequenceDAO使用的sql
+ * <p>
+ * 表结构见sql.txt，查询语句的列顺序为name,current,max,min,step,count,loop
+ *
+ * @author bridgeli
+ */
+public interface SequenceDialect {
+
+    /**
+     * 按name加锁查询一条记录
+     */
+    String querySql();
+
+    /**
+     * 按name加锁查询size条记录，按name排序加锁
+     */
+    String queryBatchSql(int size);
+
+    /**
+     * 按name前缀查询，参数为{@link #escapeLike(String)}转义后加上通配符的前缀
+     */
+    String queryNamesByPrefixSql();
+
+    /**
+     * 参数依次为current, name
+     */
+    String updateSql();
+
+    /**
+     * 参数依次为current, name, expect
+     */
+    String compareAndSetSql();
+
+    /**
+     * 参数依次为size组(name, current)，再是size个name
+     */
+    String updateBatchSql(int size);
+
+    /**
+     * 单条语句领取号段，参数依次为delta, name, delta，通过getGeneratedKeys或者{@link #claimedCurrentSql()}返回领取后的current；
+     * {@link #isClaimQuery()}为true时为查询语句，结果集第一列即领取后的current
+     *
+     * @return 不支持时返回null
+     */
+    String claimSql();
+
+    /**
+     * 领取号段的语句是否直接返回领取后的current，例如UPDATE ... RETURNING
+     */
+    boolean isClaimQuery();
+
+    /**
+     * 领取号段后在同一连接上查询领取后的current
+     */
+    String claimedCurrentSql();
+
+    /**
+     * 参数依次为name,current,max,min,step,count,loop
+     */
+    String insertSql();
+
+    /**
+     * 转义like中的通配符
+     */
+    String escapeLike(String prefix);
+
+    /**
+     * 是否为主键重复
+     */
+    boolean isDuplicateKey(SQLException e);
+}
@@ -0,0 +1,20 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+/**
+ * 执行SequenceDAO操作的事务
+ * <p>
+ * 一次回调中的查询(加锁)和更新需要在同一个独立的新事务中完成，不能加入调用方已有的事务
+ *
+ * @author bridgeli
+ */
+public interface SequenceTransaction {
+
+    /**
+     * 在新事务中执行回调，回调抛出异常时回滚
+     */
+    <T> T execute(Callback<T> callback);
+
+    interface Callback<T> {
+        T doInTransaction();
+    }
+}
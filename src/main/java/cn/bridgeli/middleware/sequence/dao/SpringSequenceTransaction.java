@@ -0,0 +1,35 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * 基于spring TransactionTemplate的事务，传播行为为PROPAGATION_REQUIRES_NEW
+ *
+ * @author bridgeli
+ */
+public class SpringSequenceTransaction implements SequenceTransaction {
+
+    private final TransactionTemplate transactionTemplate;
+
+    public SpringSequenceTransaction(DataSource dataSource) {
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setName("sequenceTransaction");
+        transactionTemplate.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
+    }
+
+    @Override
+    public <T> T execute(final Callback<T> callback) {
+        return transactionTemplate.execute(new TransactionCallback<T>() {
+            @Override
+            public T doInTransaction(TransactionStatus status) {
+                return callback.doInTransaction();
+            }
+        });
+    }
+}
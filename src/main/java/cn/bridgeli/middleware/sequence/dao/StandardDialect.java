@@ -0,0 +1,66 @@
+package cn.bridgeli.middleware.sequence.dao;
+
+/**
+ * 标准sql方言，不使用反引号、now()和LAST_INSERT_ID，适用于PostgreSQL、H2等数据库的sequence表
+ * <p>
+ * 不支持单条语句领取号段，每次取号段都先select for update再update；PostgreSQL、H2上使用PostgreSQLDialect、H2Dialect可以单条语句领取
+ *
+ * @author bridgeli
+ */
+public class StandardDialect extends MySQLDialect {
+
+    private static final String BASE_COLUMN = "name,current,max,min,step,count,loop";
+
+    @Override
+    public String querySql() {
+        return "SELECT " + BASE_COLUMN + " FROM sequence WHERE name = ? FOR UPDATE";
+    }
+
+    @Override
+    public String queryBatchSql(int size) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(BASE_COLUMN).append(" FROM sequence WHERE name IN (");
+        appendPlaceholders(sql, size);
+        return sql.append(") ORDER BY name FOR UPDATE").toString();
+    }
+
+    @Override
+    public String queryNamesByPrefixSql() {
+        return "SELECT name FROM sequence WHERE name LIKE ? ESCAPE '\\'";
+    }
+
+    @Override
+    public String updateSql() {
+        return "UPDATE sequence SET current = ?,modify_time=CURRENT_TIMESTAMP WHERE name=?";
+    }
+
+    @Override
+    public String compareAndSetSql() {
+        return "UPDATE sequence SET current = ?,modify_time=CURRENT_TIMESTAMP WHERE name=? AND current=?";
+    }
+
+    @Override
+    public String updateBatchSql(int size) {
+        StringBuilder sql = new StringBuilder("UPDATE sequence SET current = CASE name");
+        for (int i = 0; i < size; i++) {
+            sql.append(" WHEN ? THEN ?");
+        }
+        sql.append(" END,modify_time=CURRENT_TIMESTAMP WHERE name IN (");
+        appendPlaceholders(sql, size);
+        return sql.append(')').toString();
+    }
+
+    @Override
+    public String claimSql() {
+        return null;
+    }
+
+    @Override
+    public String claimedCurrentSql() {
+        return null;
+    }
+
+    @Override
+    public String insertSql() {
+        return "INSERT INTO sequence(" + BASE_COLUMN + ",modify_time,create_time) VALUES(?,?,?,?,?,?,?,CURRENT_TIMESTAMP,CURRENT_TIMESTAMP)";
+    }
+}
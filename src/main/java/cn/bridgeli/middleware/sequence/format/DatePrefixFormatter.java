@@ -0,0 +1,239 @@
+package cn.bridgeli.middleware.sequence.format;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 日期前缀 + 序号 的格式化器
+ * <p>
+ * 同一个日期格式只编译一次为线程安全的DateTimeFormatter，格式字母同DateTimeFormatter，常用的yyyyMMddHHmmssSSS等与SimpleDateFormat一致；
+ * 格式化后的日期前缀按秒缓存(格式中包含毫秒S时按毫秒缓存)，同一秒内的序号直接复用前缀；
+ * 可以直接写入调用方提供的char[]、StringBuilder、ByteBuffer，除最终可选的String外不产生其他对象
+ *
+ * @author bridgeli
+ */
+public class DatePrefixFormatter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 缓存的日期格式个数上限，超过后不再缓存新的格式，避免调用方传入大量不同格式时内存无限增长
+     */
+    private static final int MAX_CACHED_PATTERNS = 256;
+
+    /**
+     * long类型最长的十进制字符数，包含负号
+     */
+    private static final int MAX_LONG_CHARS = 20;
+
+    private static final ConcurrentMap<String, DatePrefixFormatter> FORMATTERS = new ConcurrentHashMap<String, DatePrefixFormatter>();
+
+    private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[64];
+        }
+    };
+
+    private final String pattern;
+    private final DateTimeFormatter formatter;
+    /**
+     * 前缀缓存粒度(毫秒)
+     */
+    private final long granularity;
+    private volatile Prefix cached;
+
+    private DatePrefixFormatter(String pattern) {
+        this.pattern = pattern;
+        // 格式非法时抛出IllegalArgumentException
+        this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(ZoneId.systemDefault());
+        this.granularity = containsMillis(pattern) ? 1L : 1000L;
+    }
+
+    public static DatePrefixFormatter getInstance(String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("参数pattern不能为空！");
+        }
+        DatePrefixFormatter formatter = FORMATTERS.get(pattern);
+        if (formatter == null) {
+            formatter = new DatePrefixFormatter(pattern);
+            if (FORMATTERS.size() < MAX_CACHED_PATTERNS) {
+                DatePrefixFormatter existing = FORMATTERS.putIfAbsent(pattern, formatter);
+                if (existing != null) {
+                    formatter = existing;
+                }
+            }
+        }
+        return formatter;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * 当前时间前缀 + seq
+     */
+    public String format(long seq) {
+        Prefix prefix = prefix(System.currentTimeMillis());
+        int length = prefix.chars.length + MAX_LONG_CHARS;
+        char[] buf = BUFFER.get();
+        if (buf.length < length) {
+            buf = new char[length];
+            BUFFER.set(buf);
+        }
+        int written = write(prefix, seq, buf, 0);
+        return new String(buf, 0, written);
+    }
+
+    /**
+     * 把当前时间前缀 + seq 写入buf
+     *
+     * @return 写入的字符数
+     * @throws IndexOutOfBoundsException buf剩余空间不足
+     */
+    public int format(long seq, char[] buf, int offset) {
+        Prefix prefix = prefix(System.currentTimeMillis());
+        if (offset < 0 || buf.length - offset < prefix.chars.length + stringSize(seq)) {
+            throw new IndexOutOfBoundsException("buf.length:" + buf.length + ",offset:" + offset);
+        }
+        return write(prefix, seq, buf, offset);
+    }
+
+    /**
+     * 把当前时间前缀 + seq 追加到sb
+     */
+    public StringBuilder format(long seq, StringBuilder sb) {
+        Prefix prefix = prefix(System.currentTimeMillis());
+        return sb.append(prefix.chars).append(seq);
+    }
+
+    /**
+     * 把当前时间前缀 + seq 以UTF-8编码写入buf
+     *
+     * @return 写入的字节数
+     * @throws BufferOverflowException buf剩余空间不足
+     */
+    public int format(long seq, ByteBuffer buf) {
+        Prefix prefix = prefix(System.currentTimeMillis());
+        int start = buf.position();
+        buf.put(prefix.bytes);
+        int size = stringSize(seq);
+        if (buf.remaining() < size) {
+            buf.position(start);
+            throw new BufferOverflowException();
+        }
+        int end = buf.position() + size;
+        long value = seq;
+        if (value == Long.MIN_VALUE) {
+            buf.put(UTF_8.encode(String.valueOf(value)));
+            return buf.position() - start;
+        }
+        if (value < 0) {
+            buf.put(buf.position(), (byte) '-');
+            value = -value;
+        }
+        int pos = end;
+        do {
+            buf.put(--pos, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        buf.position(end);
+        return end - start;
+    }
+
+    Prefix prefix(long now) {
+        long period = now / granularity;
+        Prefix prefix = cached;
+        if (prefix != null && prefix.period == period) {
+            return prefix;
+        }
+        prefix = new Prefix(period, formatter.format(Instant.ofEpochMilli(now)));
+        cached = prefix;
+        return prefix;
+    }
+
+    private static int write(Prefix prefix, long seq, char[] buf, int offset) {
+        char[] chars = prefix.chars;
+        System.arraycopy(chars, 0, buf, offset, chars.length);
+        return chars.length + writeDigits(seq, buf, offset + chars.length);
+    }
+
+    /**
+     * 把seq的十进制写入buf
+     *
+     * @return 写入的字符数
+     */
+    static int writeDigits(long seq, char[] buf, int offset) {
+        if (seq == Long.MIN_VALUE) {
+            String text = String.valueOf(seq);
+            text.getChars(0, text.length(), buf, offset);
+            return text.length();
+        }
+        int size = stringSize(seq);
+        int pos = offset + size;
+        long value = seq;
+        if (value < 0) {
+            buf[offset] = '-';
+            value = -value;
+        }
+        do {
+            buf[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return size;
+    }
+
+    /**
+     * seq的十进制字符数，包含负号
+     */
+    static int stringSize(long seq) {
+        if (seq == Long.MIN_VALUE) {
+            return MAX_LONG_CHARS;
+        }
+        int size = seq < 0 ? 2 : 1;
+        long value = seq < 0 ? -seq : seq;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 日期格式中是否包含不在引号内的毫秒S
+     */
+    private static boolean containsMillis(String pattern) {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == 'S' && !quoted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 某一秒(或毫秒)的日期前缀
+     */
+    static final class Prefix {
+        final long period;
+        final char[] chars;
+        final byte[] bytes;
+
+        private Prefix(long period, String text) {
+            this.period = period;
+            this.chars = text.toCharArray();
+            this.bytes = text.getBytes(UTF_8);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package cn.bridgeli.middleware.sequence.server;
+
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import cn.bridgeli.middleware.sequence.core.SequenceRange;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SequenceServer的客户端，不访问数据库，取号参数与SequenceContext相同
+ * <p>
+ * 一个客户端一条长连接，请求以流水线方式发送：调用方只把请求放入发送队列，拿到写锁的线程把队列中所有请求合并为一次写，
+ * 不等待前面请求的响应；一个读线程按requestId把响应交给对应的future。取单个序号每次一个请求，
+ * 批量取号时一个请求取回一整段，调用方可以在本地使用
+ * <p>
+ * 客户端不自动重连：连接断开或者读写失败后客户端即关闭，等待中的请求以SequenceException失败，之后的请求也直接失败；
+ * 调用方通过isClosed判断，需要时创建新的客户端，例如在连接池或者持有方中检查后替换
+ *
+ * @author bridgeli
+ */
+public class SequenceClient implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = 3000;
+    private static final int MAX_GATHER = 64;
+
+    @Getter
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final AtomicLong requestIds = new AtomicLong();
+    private final ConcurrentMap<Long, CompletableFuture<SequenceRange>> pending = new ConcurrentHashMap<Long, CompletableFuture<SequenceRange>>();
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Thread reader;
+    /**
+     * 同步取号等待响应的超时时间
+     */
+    @Getter
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private volatile boolean closed;
+
+    public SequenceClient(String host, int port) throws IOException {
+        this(new InetSocketAddress(host, port));
+    }
+
+    public SequenceClient(InetSocketAddress address) throws IOException {
+        if (address == null) {
+            throw new IllegalArgumentException("参数address不能为空！");
+        }
+        this.address = address;
+        this.channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "global-sequence-client-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * 客户端是否已关闭，包括连接断开后自动关闭；已关闭的客户端不能再使用，需要重新创建
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 等待响应的请求个数
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("超时时间应该大于0");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getNextSeq(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop) {
+        return await(getNextSeqRangeAsync(seqName, dynamic, min, max, step, count, isLoop, 1), seqName).getStart();
+    }
+
+    /**
+     * 一个请求取回size个连续序号
+     */
+    public SequenceRange getNextSeqRange(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop, int size) {
+        return await(getNextSeqRangeAsync(seqName, dynamic, min, max, step, count, isLoop, size), seqName);
+    }
+
+    public CompletableFuture<Long> getNextSeqAsync(String seqName, boolean dynamic, long min, long max, long step, long count, boolean isLoop) {
+        return getNextSeqRangeAsync(seqName, dynamic, min, max, step, count, isLoop, 1).thenApply(SequenceRange::getStart);
+    }
+
+    /**
+     * 发送请求后立即返回，响应到达时在读线程中完成future，回调中不要做耗时操作
+     */
+    public CompletableFuture<SequenceRange> getNextSeqRangeAsync(String seqName, boolean dynamic, long min, long max, long step, long count,
+                                                                 boolean isLoop, int size) {
+        if (seqName == null) {
+            throw new IllegalArgumentException("参数seqName不能为空！");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("批量取号个数为负或0");
+        }
+        long requestId = requestIds.incrementAndGet();
+        ByteBuffer frame = SequenceProtocol.encodeRequest(
+                new SequenceProtocol.Request(requestId, seqName, dynamic, min, max, step, count, isLoop, size));
+        CompletableFuture<SequenceRange> future = new CompletableFuture<SequenceRange>();
+        pending.put(requestId, future);
+        if (closed) {
+            pending.remove(requestId);
+            future.completeExceptionally(new SequenceException("序号客户端已关闭.server=" + address));
+            return future;
+        }
+        outbound.add(frame);
+        flush();
+        return future;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn(String.format("关闭序号客户端失败.server=%s", address), e);
+        }
+        failPending(new SequenceException("序号客户端已关闭.server=" + address));
+    }
+
+    /**
+     * 拿不到写锁说明其他线程正在写，它写完后会再检查队列，本线程的请求会被一起写出
+     */
+    private void flush() {
+        while (!outbound.isEmpty() && writeLock.tryLock()) {
+            try {
+                List<ByteBuffer> gather = new ArrayList<ByteBuffer>(MAX_GATHER);
+                ByteBuffer buffer;
+                while ((buffer = outbound.poll()) != null) {
+                    gather.add(buffer);
+                    if (gather.size() == MAX_GATHER) {
+                        write(gather);
+                        gather.clear();
+                    }
+                }
+                if (!gather.isEmpty()) {
+                    write(gather);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.warn(String.format("序号客户端发送请求失败.server=%s", address), e);
+                }
+                close();
+                outbound.clear();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void write(List<ByteBuffer> gather) throws IOException {
+        ByteBuffer[] buffers = gather.toArray(new ByteBuffer[gather.size()]);
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private void readLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        try {
+            while (!closed) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("序号服务端关闭了连接");
+                }
+                buffer.flip();
+                while (buffer.remaining() >= SequenceProtocol.LENGTH_BYTES) {
+                    int length = buffer.getInt(buffer.position());
+                    if (length <= 0 || length > SequenceProtocol.MAX_FRAME_SIZE) {
+                        throw new IOException("非法的帧长度" + length);
+                    }
+                    if (buffer.remaining() < SequenceProtocol.LENGTH_BYTES + length) {
+                        break;
+                    }
+                    int end = buffer.position() + SequenceProtocol.LENGTH_BYTES + length;
+                    buffer.position(buffer.position() + SequenceProtocol.LENGTH_BYTES);
+                    complete(buffer);
+                    buffer.position(end);
+                }
+                buffer.compact();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.warn(String.format("序号客户端连接断开.server=%s", address), e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void complete(ByteBuffer payload) {
+        long requestId = payload.getLong();
+        byte status = payload.get();
+        CompletableFuture<SequenceRange> future = pending.remove(requestId);
+        if (future == null) {
+            // 已经超时放弃的请求
+            return;
+        }
+        if (status == SequenceProtocol.STATUS_OK) {
+            long start = payload.getLong();
+            int size = payload.getInt();
+            long step = payload.getLong();
+            future.complete(new SequenceRange(start, size, step));
+        } else {
+            future.completeExceptionally(new SequenceException(SequenceProtocol.readString(payload)));
+        }
+    }
+
+    private void failPending(SequenceException e) {
+        for (Long requestId : new ArrayList<Long>(pending.keySet())) {
+            CompletableFuture<SequenceRange> future = pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private SequenceRange await(CompletableFuture<SequenceRange> future, String seqName) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 放弃等待，不再保留future，迟到的响应直接丢弃
+            pending.values().remove(future);
+            throw new SequenceException(String.format("%s等待序号服务端响应超时%dms.server=%s", seqName, timeoutMillis, address), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SequenceException("等待序号服务端响应被中断.name=" + seqName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SequenceException) {
+                throw (SequenceException) e.getCause();
+            }
+            throw new SequenceException("序号服务端取号失败.name=" + seqName, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cn.bridgeli.middleware.sequence.server;
+
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import cn.bridgeli.middleware.sequence.core.SequenceRange;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SequenceServer和SequenceClient之间的二进制协议，整数均为大端
+ * <p>
+ * 每帧为4字节的长度加内容，长度不包含自身；请求和响应通过requestId对应，同一个连接上可以连续发送多个请求而不等待响应，响应顺序不保证与请求一致
+ * <pre>
+ * 请求: requestId(8) flags(1) min(8) max(8) step(8) count(8) size(4) nameLength(2) name(UTF-8)
+ *       flags: 1=dynamic 2=loop
+ * 响应: requestId(8) status(1) 成功时 start(8) size(4) step(8)，失败时 messageLength(2) message(UTF-8)
+ * </pre>
+ *
+ * @author bridgeli
+ */
+final class SequenceProtocol {
+
+    static final int LENGTH_BYTES = 4;
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    static final byte FLAG_DYNAMIC = 1;
+    static final byte FLAG_LOOP = 2;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private static final int REQUEST_FIXED_SIZE = 8 + 1 + 8 * 4 + 4 + 2;
+    private static final int RESPONSE_OK_SIZE = 8 + 1 + 8 + 4 + 8;
+    private static final int MAX_MESSAGE_BYTES = 1024;
+
+    private SequenceProtocol() {
+    }
+
+    /**
+     * 批量取号请求，取单个序号时size为1
+     */
+    static final class Request {
+        final long requestId;
+        final String seqName;
+        final boolean dynamic;
+        final long min;
+        final long max;
+        final long step;
+        final long count;
+        final boolean loop;
+        final int size;
+
+        Request(long requestId, String seqName, boolean dynamic, long min, long max, long step, long count, boolean loop, int size) {
+            this.requestId = requestId;
+            this.seqName = seqName;
+            this.dynamic = dynamic;
+            this.min = min;
+            this.max = max;
+            this.step = step;
+            this.count = count;
+            this.loop = loop;
+            this.size = size;
+        }
+    }
+
+    static ByteBuffer encodeRequest(Request request) {
+        byte[] name = request.seqName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > Short.MAX_VALUE) {
+            throw new SequenceException("序号名称过长.name=" + request.seqName);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_BYTES + REQUEST_FIXED_SIZE + name.length);
+        frame.putInt(REQUEST_FIXED_SIZE + name.length);
+        frame.putLong(request.requestId);
+        frame.put((byte) ((request.dynamic ? FLAG_DYNAMIC : 0) | (request.loop ? FLAG_LOOP : 0)));
+        frame.putLong(request.min);
+        frame.putLong(request.max);
+        frame.putLong(request.step);
+        frame.putLong(request.count);
+        frame.putInt(request.size);
+        frame.putShort((short) name.length);
+        frame.put(name);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * 从帧内容解码请求，payload的position位于长度之后，limit为帧结束位置
+     */
+    static Request decodeRequest(ByteBuffer payload) {
+        long requestId = payload.getLong();
+        byte flags = payload.get();
+        long min = payload.getLong();
+        long max = payload.getLong();
+        long step = payload.getLong();
+        long count = payload.getLong();
+        int size = payload.getInt();
+        String seqName = readString(payload);
+        return new Request(requestId, seqName, (flags & FLAG_DYNAMIC) != 0, min, max, step, count, (flags & FLAG_LOOP) != 0, size);
+    }
+
+    static void encodeRange(ByteBuffer out, long requestId, SequenceRange range) {
+        out.putInt(RESPONSE_OK_SIZE);
+        out.putLong(requestId);
+        out.put(STATUS_OK);
+        out.putLong(range.getStart());
+        out.putInt(range.getSize());
+        out.putLong(range.getStep());
+    }
+
+    static ByteBuffer encodeError(long requestId, String message) {
+        byte[] bytes = (message == null ? "序号服务端异常" : message).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_MESSAGE_BYTES);
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_BYTES + 8 + 1 + 2 + length);
+        frame.putInt(8 + 1 + 2 + length);
+        frame.putLong(requestId);
+        frame.put(STATUS_ERROR);
+        frame.putShort((short) length);
+        frame.put(bytes, 0, length);
+        frame.flip();
+        return frame;
+    }
+
+    static int rangeFrameSize() {
+        return LENGTH_BYTES + RESPONSE_OK_SIZE;
+    }
+
+    static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort() & 0xFFFF];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,310 @@
+package cn.bridgeli.middleware.sequence.server;
+
+import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import cn.bridgeli.middleware.sequence.core.SequenceRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 独立部署的序号服务端，通过SequenceProtocol把SequenceContext的批量取号提供给SequenceClient
+ * <p>
+ * 只有服务端访问数据库：所有客户端共用服务端SequenceContext的本地号段，号段用完时一个jvm补一次号段，
+ * 配合SequenceContext.setGroupCommit，多个序号的补号合并为一个事务；大量小jvm不再各自持有号段和数据库连接
+ * <p>
+ * 一个selector线程负责所有连接的读写：本地号段足够的请求在selector线程内直接完成，同一次读到的请求的响应合并为一次写；
+ * 需要访问数据库的请求交给SequenceContext的异步线程池，完成后唤醒selector写回。使用前需要先初始化SequenceContext
+ *
+ * @author bridgeli
+ */
+public class SequenceServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("GLOBAL-SEQUENCE");
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private final InetSocketAddress address;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean closed;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+
+    public SequenceServer(int port) {
+        this(new InetSocketAddress(port));
+    }
+
+    public SequenceServer(InetSocketAddress address) {
+        if (address == null) {
+            throw new IllegalArgumentException("参数address不能为空！");
+        }
+        this.address = address;
+    }
+
+    /**
+     * 绑定端口并启动selector线程，端口为0时由系统分配，通过getPort获取
+     */
+    public void start() throws IOException {
+        if (!started.compareAndSet(false, true)) {
+            throw new SequenceException("序号服务端已经启动");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(address);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "global-sequence-server");
+        selectorThread.start();
+        LOGGER.info(String.format("全局序列号服务端已启动,监听%s", serverChannel.socket().getLocalSocketAddress()));
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * 关闭监听端口和所有客户端连接，不关闭SequenceContext
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed || !started.get()) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    connection.writeScheduled.set(false);
+                    connection.flush();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("全局序列号服务端selector异常,停止服务", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.warn("关闭全局序列号服务端失败", e);
+            }
+            LOGGER.info("全局序列号服务端已关闭");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(key, channel));
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // 连接已经不可用
+        }
+    }
+
+    /**
+     * 一个客户端连接；读缓冲只在selector线程访问，响应可以在任意线程加入outbound，由selector线程写出
+     */
+    private final class Connection {
+
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        /**
+         * selector线程内直接完成的响应先合并到这里，读完一批请求后一起写出
+         */
+        private ByteBuffer batch;
+
+        private Connection(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        private void read() {
+            int n;
+            try {
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                closeQuietly(key);
+                return;
+            }
+            if (n < 0) {
+                closeQuietly(key);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= SequenceProtocol.LENGTH_BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length <= 0 || length > SequenceProtocol.MAX_FRAME_SIZE) {
+                    LOGGER.warn(String.format("序号服务端收到非法的帧长度%d,关闭连接%s", length, channel.socket().getRemoteSocketAddress()));
+                    closeQuietly(key);
+                    return;
+                }
+                if (readBuffer.remaining() < SequenceProtocol.LENGTH_BYTES + length) {
+                    break;
+                }
+                int end = readBuffer.position() + SequenceProtocol.LENGTH_BYTES + length;
+                int limit = readBuffer.limit();
+                readBuffer.position(readBuffer.position() + SequenceProtocol.LENGTH_BYTES).limit(end);
+                SequenceProtocol.Request request;
+                try {
+                    request = SequenceProtocol.decodeRequest(readBuffer);
+                } catch (RuntimeException e) {
+                    LOGGER.warn(String.format("序号服务端收到非法的请求,关闭连接%s", channel.socket().getRemoteSocketAddress()), e);
+                    closeQuietly(key);
+                    return;
+                }
+                readBuffer.limit(limit).position(end);
+                handle(request);
+            }
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+            if (batch != null) {
+                batch.flip();
+                outbound.add(batch);
+                batch = null;
+            }
+            flush();
+        }
+
+        private void handle(final SequenceProtocol.Request request) {
+            CompletableFuture<SequenceRange> future;
+            try {
+                future = SequenceContext.getNextSeqRangeAsync(request.seqName, request.dynamic, request.min, request.max, request.step,
+                        request.count, request.loop, request.size);
+            } catch (RuntimeException e) {
+                outbound.add(SequenceProtocol.encodeError(request.requestId, e.getMessage()));
+                return;
+            }
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                SequenceRange range = future.join();
+                if (batch == null) {
+                    batch = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+                } else if (batch.remaining() < SequenceProtocol.rangeFrameSize()) {
+                    batch.flip();
+                    outbound.add(batch);
+                    batch = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+                }
+                SequenceProtocol.encodeRange(batch, request.requestId, range);
+                return;
+            }
+            future.whenComplete((result, error) -> {
+                if (error == null) {
+                    ByteBuffer frame = ByteBuffer.allocate(SequenceProtocol.rangeFrameSize());
+                    SequenceProtocol.encodeRange(frame, request.requestId, result);
+                    frame.flip();
+                    outbound.add(frame);
+                } else {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    outbound.add(SequenceProtocol.encodeError(request.requestId, cause.getMessage()));
+                }
+                if (writeScheduled.compareAndSet(false, true)) {
+                    pendingWrites.add(this);
+                    selector.wakeup();
+                }
+            });
+        }
+
+        /**
+         * 只在selector线程调用，写不完时关注OP_WRITE，写完后取消
+         */
+        private void flush() {
+            if (!key.isValid()) {
+                outbound.clear();
+                return;
+            }
+            try {
+                ByteBuffer buffer;
+                while ((buffer = outbound.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    outbound.poll();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                closeQuietly(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package cn.bridgeli.middleware.sequence;
+
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 测试snowflake序号的位布局、时钟回拨和毫秒内计数用完时的处理
+ *
+ * @author bridgeli
+ */
+public class SnowflakeSeqServiceTest {
+
+    private static final long MAX_BACKWARD_MILLIS = 1000L;
+
+    @Test
+    public void testBitLayout() {
+        long state = (123456789L << 12) | 4095;
+        long id = SnowflakeSeqService.compose(state, 1023);
+        Assert.assertEquals(123456789L, id >>> 22);
+        Assert.assertEquals(1023, (id >>> 12) & 1023);
+        Assert.assertEquals(4095, id & 4095);
+
+        long max = SnowflakeSeqService.compose(((1L << 41) - 1) << 12, 0);
+        Assert.assertTrue(max > 0);
+    }
+
+    @Test
+    public void testNewMillisecond() {
+        long prev = (1000L << 12) | 17;
+        Assert.assertEquals(1001L << 12, SnowflakeSeqService.nextState(prev, 1001, MAX_BACKWARD_MILLIS));
+        Assert.assertEquals(prev + 1, SnowflakeSeqService.nextState(prev, 1000, MAX_BACKWARD_MILLIS));
+    }
+
+    /**
+     * 小幅回拨沿用上次的时间戳继续递增，不超前于上次的时间戳
+     */
+    @Test
+    public void testSmallBackwardAbsorbed() {
+        long prev = (5000L << 12) | 3;
+        long next = SnowflakeSeqService.nextState(prev, 5000 - MAX_BACKWARD_MILLIS, MAX_BACKWARD_MILLIS);
+        Assert.assertEquals(prev + 1, next);
+        Assert.assertEquals(5000L, next >>> 12);
+    }
+
+    @Test(expected = SequenceException.class)
+    public void testLargeBackwardRejected() {
+        SnowflakeSeqService.nextState(5000L << 12, 5000 - MAX_BACKWARD_MILLIS - 1, MAX_BACKWARD_MILLIS);
+    }
+
+    /**
+     * 计数用完时等待时钟前进，而不是借用下一毫秒
+     */
+    @Test
+    public void testCounterOverflowWaits() {
+        long prev = (5000L << 12) | 4095;
+        Assert.assertEquals(-1, SnowflakeSeqService.nextState(prev, 5000, MAX_BACKWARD_MILLIS));
+        Assert.assertEquals(-1, SnowflakeSeqService.nextState(prev, 4990, MAX_BACKWARD_MILLIS));
+        Assert.assertEquals(5001L << 12, SnowflakeSeqService.nextState(prev, 5001, MAX_BACKWARD_MILLIS));
+    }
+}
@@ -0,0 +1,77 @@
+package cn.bridgeli.middleware.sequence.benchmark;
+
+import cn.bridgeli.middleware.sequence.DynamicSeqService;
+import cn.bridgeli.middleware.sequence.core.InMemorySequenceDAO;
+import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带前缀和日期前缀的取号开销，可配合-prof gc观察每次调用的内存分配
+ *
+ * @author bridgeli
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattedSequenceBenchmark {
+
+    private static final String SEQ_NAME = "bench_formatted";
+    private static final String DATE_FORMAT = "yyyyMMddHHmmss";
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        private final char[] chars = new char[64];
+        private final StringBuilder builder = new StringBuilder(64);
+    }
+
+    @Setup
+    public void setUp() {
+        InMemorySequenceDAO sequenceDAO = new InMemorySequenceDAO();
+        SequenceContext.initialize(sequenceDAO, sequenceDAO);
+    }
+
+    @Benchmark
+    public long plain() {
+        return DynamicSeqService.nextSeq(SEQ_NAME);
+    }
+
+    @Benchmark
+    public String prefix() {
+        return DynamicSeqService.nextSeqWithPrefix("ORDER", SEQ_NAME);
+    }
+
+    @Benchmark
+    public String datePrefix() {
+        return DynamicSeqService.nextSeqWithDatePrefix(SEQ_NAME);
+    }
+
+    @Benchmark
+    public String timePrefix() {
+        return DynamicSeqService.nextSeqWithTimePrefix(SEQ_NAME);
+    }
+
+    @Benchmark
+    public int dateFormatCharArray(Buffer buffer) {
+        return DynamicSeqService.nextSeqWithDateFormat(DATE_FORMAT, SEQ_NAME, buffer.chars, 0);
+    }
+
+    @Benchmark
+    public StringBuilder dateFormatStringBuilder(Buffer buffer) {
+        buffer.builder.setLength(0);
+        return DynamicSeqService.nextSeqWithDateFormat(DATE_FORMAT, SEQ_NAME, buffer.builder);
+    }
+}
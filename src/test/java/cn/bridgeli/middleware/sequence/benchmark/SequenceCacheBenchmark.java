@@ -0,0 +1,72 @@
+package cn.bridgeli.middleware.sequence.benchmark;
+
+import cn.bridgeli.middleware.sequence.DynamicSeqService;
+import cn.bridgeli.middleware.sequence.core.InMemorySequenceDAO;
+import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列个数接近和超过maxCacheSize时的取号开销，超过后每次未命中都要重新初始化序列并触发淘汰
+ *
+ * @author bridgeli
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceCacheBenchmark {
+
+    private static final int MAX_CACHE_SIZE = 1000;
+
+    /**
+     * 轮流使用的序列个数
+     */
+    @Param({"500", "900", "1100", "4000"})
+    public int names;
+
+    private String[] seqNames;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+    }
+
+    @Setup
+    public void setUp() {
+        InMemorySequenceDAO sequenceDAO = new InMemorySequenceDAO();
+        SequenceContext.initialize(sequenceDAO, sequenceDAO);
+        SequenceContext.setCacheSize(MAX_CACHE_SIZE, MAX_CACHE_SIZE * 8 / 10, MAX_CACHE_SIZE * 6 / 10);
+        seqNames = new String[names];
+        for (int i = 0; i < names; i++) {
+            seqNames[i] = "bench_cache_" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(String.format("cache size:%d,hit:%d,miss:%d,eviction:%d", SequenceContext.getCache().size(),
+                SequenceContext.getCache().getHitCount(), SequenceContext.getCache().getMissCount(), SequenceContext.getCache().getEvictionCount()));
+    }
+
+    @Benchmark
+    public long roundRobin(Cursor cursor) {
+        int index = cursor.index;
+        cursor.index = index + 1 == names ? 0 : index + 1;
+        return DynamicSeqService.nextSeq(seqNames[index]);
+    }
+}
@@ -0,0 +1,74 @@
+package cn.bridgeli.middleware.sequence.benchmark;
+
+import cn.bridgeli.middleware.sequence.DynamicSeqService;
+import cn.bridgeli.middleware.sequence.FixedSeqService;
+import cn.bridgeli.middleware.sequence.core.InMemorySequenceDAO;
+import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SequenceContext.getNextSeq在fixed和dynamic模式下的开销，号段长度和数据库延迟可调，用于观察取号段的代价
+ * <p>
+ * 使用内存中的sequence表，每个fork只初始化一次SequenceContext
+ *
+ * @author bridgeli
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceContextBenchmark {
+
+    private static final String FIXED_NAME = "bench_fixed";
+    private static final String DYNAMIC_NAME = "bench_dynamic";
+
+    /**
+     * 号段长度，越小越频繁地从数据库取号段
+     */
+    @Param({"100", "10000"})
+    public long count;
+
+    /**
+     * 模拟每条语句的数据库往返延迟(微秒)
+     */
+    @Param({"0", "500"})
+    public long daoLatencyMicros;
+
+    /**
+     * 双buffer预取阈值，0为关闭
+     */
+    @Param({"0", "0.2"})
+    public double prefetchThreshold;
+
+    @Setup
+    public void setUp() {
+        InMemorySequenceDAO sequenceDAO = new InMemorySequenceDAO(daoLatencyMicros);
+        sequenceDAO.insert(InMemorySequenceDAO.newRow(FIXED_NAME, count));
+        SequenceContext.initialize(sequenceDAO, sequenceDAO);
+        SequenceContext.setPrefetchThreshold(prefetchThreshold);
+    }
+
+    @Benchmark
+    public long fixed() {
+        return FixedSeqService.nextSeq(FIXED_NAME);
+    }
+
+    @Benchmark
+    public long dynamic() {
+        return DynamicSeqService.nextSeq(DYNAMIC_NAME, 1, Long.MAX_VALUE, 1, count, false);
+    }
+}
@@ -0,0 +1,86 @@
+package cn.bridgeli.middleware.sequence.benchmark;
+
+import cn.bridgeli.middleware.sequence.core.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个热点序列上CAS取号和宽松顺序模式(线程本地子号段)取号的对比
+ * <p>
+ * 号段足够大，不会触发从数据库取号段，只测量本地取号的开销
+ *
+ * @author bridgeli
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceIncrementBenchmark {
+
+    private static final int RELAXED_CHUNK = 1000;
+
+    private Sequence casSequence;
+    private Sequence relaxedSequence;
+
+    @Setup
+    public void setUp() {
+        casSequence = newSequence("cas", 0);
+        relaxedSequence = newSequence("relaxed", RELAXED_CHUNK);
+    }
+
+    private static Sequence newSequence(String name, int relaxedChunk) {
+        Sequence seqFromDB = new Sequence();
+        seqFromDB.setName(name);
+        seqFromDB.setCurrent(0);
+        seqFromDB.setMin(0);
+        seqFromDB.setMax(Long.MAX_VALUE);
+        seqFromDB.setStep(1);
+        seqFromDB.setCount(Long.MAX_VALUE);
+        seqFromDB.setLoop(Sequence.LOOP_NO);
+
+        Sequence sequence = new Sequence();
+        sequence.setName(name);
+        sequence.setRelaxedChunk(relaxedChunk);
+        sequence.updateFromDB(seqFromDB);
+        return sequence;
+    }
+
+    @Benchmark
+    public long cas() {
+        return casSequence.getCurrentAndIncrementStep();
+    }
+
+    @Benchmark
+    public long relaxed() {
+        return relaxedSequence.getFromLocalRange();
+    }
+
+    /**
+     * 依次以1个线程到CPU核数个线程运行，参数可指定最大线程数
+     */
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .include(SequenceIncrementBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * 测试淘汰保留表取回号段的顺序
+ *
+ * @author bridgeli
+ */
+public class EvictedRangeTableTest {
+
+    private static final int CAPACITY = 8;
+
+    /**
+     * 其他序列空出的槽位在本序列已有号段之前时，取回的号段仍按放入的先后排序
+     */
+    @Test
+    public void testTakeInInsertionOrder() {
+        String name = "seq_a";
+        String other = collidingName(name);
+        EvictedRangeTable table = new EvictedRangeTable(CAPACITY);
+
+        table.put(other, 1, 10, newSequence(other));
+        table.put(name, 100, 110, newSequence(name));
+        // other空出hash位置的槽位，name的第二个号段放在第一个号段之前
+        Assert.assertEquals(1, table.take(other, newSequence(other)).size());
+        table.put(name, 110, 120, newSequence(name));
+        table.put(name, 120, 130, newSequence(name));
+        Assert.assertEquals(3, table.size());
+
+        List<SequenceSegment> segments = table.take(name, newSequence(name));
+        Assert.assertEquals(3, segments.size());
+        Assert.assertEquals(100, segments.get(0).getStart());
+        Assert.assertEquals(110, segments.get(1).getStart());
+        Assert.assertEquals(120, segments.get(2).getStart());
+        Assert.assertEquals(0, table.size());
+        Assert.assertTrue(table.take(name, newSequence(name)).isEmpty());
+    }
+
+    private static Sequence newSequence(String name) {
+        Sequence sequence = new Sequence();
+        sequence.setName(name);
+        sequence.setStep(1);
+        sequence.setCount(10);
+        sequence.setMaxInDB(Long.MAX_VALUE);
+        sequence.setLoop(Sequence.LOOP_NO);
+        return sequence;
+    }
+
+    /**
+     * 与name落在同一个hash位置的另一个序列名
+     */
+    private static String collidingName(String name) {
+        for (int i = 0; ; i++) {
+            String candidate = "seq_" + i;
+            if (!candidate.equals(name) && home(candidate) == home(name)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static int home(String name) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (CAPACITY - 1);
+    }
+}
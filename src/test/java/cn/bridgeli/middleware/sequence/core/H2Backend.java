@@ -0,0 +1,74 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内嵌的H2内存数据库，不依赖MySQL测试整个组件；每个实例是一个独立的库，最后一个连接关闭后数据仍保留到jvm退出
+ *
+ * @author bridgeli
+ */
+public class H2Backend {
+
+    private static final AtomicInteger DB_NUMBER = new AtomicInteger(1);
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE sequence ("
+            + "name varchar(64) NOT NULL,"
+            + "current bigint NOT NULL DEFAULT 1,"
+            + "max bigint NOT NULL DEFAULT 9223372036854775807,"
+            + "min bigint NOT NULL DEFAULT 1,"
+            + "step bigint NOT NULL DEFAULT 1,"
+            + "count bigint NOT NULL DEFAULT 100,"
+            + "loop varchar(4) NOT NULL DEFAULT 'N',"
+            + "modify_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,"
+            + "create_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,"
+            + "PRIMARY KEY (name))";
+
+    private final JdbcDataSource dataSource;
+
+    private H2Backend(String mode) {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:sequence" + DB_NUMBER.getAndIncrement() + ";DB_CLOSE_DELAY=-1" + (mode == null ? "" : ";MODE=" + mode));
+        dataSource.setUser("sa");
+    }
+
+    /**
+     * 带sequence表的标准模式库，配合StandardDialect或者NativeSequenceDialect
+     */
+    public static H2Backend standard() {
+        H2Backend backend = new H2Backend(null);
+        backend.execute(CREATE_TABLE_SQL);
+        return backend;
+    }
+
+    /**
+     * 带sequence表的MySQL兼容模式库，配合默认的MySQLDialect，H2不支持LAST_INSERT_ID(expr)，需要关闭单条语句领取号段
+     */
+    public static H2Backend mysql() {
+        H2Backend backend = new H2Backend("MySQL");
+        backend.execute(CREATE_TABLE_SQL);
+        return backend;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void insert(String name, long current, long max, long step, long count, boolean loop) {
+        execute(String.format("INSERT INTO sequence(name,current,max,min,step,count,loop) VALUES('%s',%d,%d,%d,%d,%d,'%s')",
+                name, current, max, current, step, count, loop ? Sequence.LOOP_YES : Sequence.LOOP_NO));
+    }
+
+    public void execute(String sql) {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql, e);
+        }
+    }
+}
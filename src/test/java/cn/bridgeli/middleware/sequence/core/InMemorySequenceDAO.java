@@ -0,0 +1,222 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import cn.bridgeli.middleware.sequence.dao.SequenceDAO;
+import cn.bridgeli.middleware.sequence.dao.SequenceTransaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 内存中的sequence表，用于不依赖数据库的benchmark和测试
+ * <p>
+ * 一个事务持有全表锁，每条语句按latencyMicros模拟一次数据库往返
+ *
+ * @author bridgeli
+ */
+public class InMemorySequenceDAO implements SequenceDAO, SequenceTransaction {
+
+    private final Map<String, Sequence> rows = new HashMap<String, Sequence>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long latencyNanos;
+
+    public InMemorySequenceDAO() {
+        this(0);
+    }
+
+    public InMemorySequenceDAO(long latencyMicros) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    @Override
+    public <T> T execute(Callback<T> callback) {
+        lock.lock();
+        try {
+            return callback.doInTransaction();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Sequence queryBySeqNameForUpdate(String seqName) {
+        lock.lock();
+        try {
+            roundTrip();
+            Sequence row = rows.get(seqName);
+            return row == null ? null : copy(row);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Sequence> queryBySeqNamesForUpdate(List<String> seqNames) {
+        lock.lock();
+        try {
+            roundTrip();
+            List<String> sorted = new ArrayList<String>(seqNames);
+            Collections.sort(sorted);
+            List<Sequence> sequences = new ArrayList<Sequence>(sorted.size());
+            for (String seqName : sorted) {
+                Sequence row = rows.get(seqName);
+                if (row != null) {
+                    sequences.add(copy(row));
+                }
+            }
+            return sequences;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> queryNamesByPrefix(String prefix) {
+        lock.lock();
+        try {
+            roundTrip();
+            List<String> names = new ArrayList<String>();
+            for (String seqName : rows.keySet()) {
+                if (seqName.startsWith(prefix)) {
+                    names.add(seqName);
+                }
+            }
+            return names;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int compareAndSetCurrent(String seqName, long expect, long current) {
+        lock.lock();
+        try {
+            roundTrip();
+            Sequence row = rows.get(seqName);
+            if (row == null || row.getCurrent() != expect) {
+                return 0;
+            }
+            row.setCurrent(current);
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int updateBatch(Map<String, Long> currents) {
+        lock.lock();
+        try {
+            roundTrip();
+            int updated = 0;
+            for (Map.Entry<String, Long> entry : currents.entrySet()) {
+                Sequence row = rows.get(entry.getKey());
+                if (row != null) {
+                    row.setCurrent(entry.getValue());
+                    updated++;
+                }
+            }
+            return updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int update(String seqName, long current) {
+        lock.lock();
+        try {
+            roundTrip();
+            Sequence row = rows.get(seqName);
+            if (row == null) {
+                return 0;
+            }
+            row.setCurrent(current);
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Long claimBySeqName(String seqName, long delta) {
+        lock.lock();
+        try {
+            roundTrip();
+            Sequence row = rows.get(seqName);
+            if (row == null || row.getCurrent() >= row.getMax() || row.getMax() - row.getCurrent() < delta) {
+                return null;
+            }
+            row.setCurrent(row.getCurrent() + delta);
+            return row.getCurrent();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int insert(Sequence sequence) {
+        lock.lock();
+        try {
+            roundTrip();
+            if (rows.containsKey(sequence.getName())) {
+                throw new DuplicateSequenceException("Duplicate entry '" + sequence.getName() + "' for key 'PRIMARY'");
+            }
+            rows.put(sequence.getName(), copy(sequence));
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前数据库记录，不模拟延迟
+     */
+    public Sequence get(String seqName) {
+        lock.lock();
+        try {
+            Sequence row = rows.get(seqName);
+            return row == null ? null : copy(row);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roundTrip() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    private static Sequence copy(Sequence source) {
+        Sequence row = new Sequence();
+        row.setName(source.getName());
+        row.setCurrent(source.getCurrent());
+        row.setMax(source.getMax());
+        row.setMin(source.getMin());
+        row.setStep(source.getStep());
+        row.setCount(source.getCount());
+        row.setLoop(source.getLoop());
+        return row;
+    }
+
+    /**
+     * 新建一条从1开始、步长为1、不循环的记录
+     */
+    public static Sequence newRow(String seqName, long count) {
+        Sequence row = new Sequence();
+        row.setName(seqName);
+        row.setCurrent(1);
+        row.setMin(1);
+        row.setMax(Long.MAX_VALUE);
+        row.setStep(1);
+        row.setCount(count);
+        row.setLoop(Sequence.LOOP_NO);
+        return row;
+    }
+}
@@ -0,0 +1,91 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试被淘汰序列的剩余号段在重新使用时取回、关闭时归还
+ *
+ * @author bridgeli
+ */
+public class SequenceCacheEvictionTest {
+
+    private static final int NAMES = 20;
+    private static final int ROUNDS = 30;
+
+    @Before
+    public void setUp() {
+        SequenceContext.reset();
+    }
+
+    @After
+    public void tearDown() {
+        SequenceContext.reset();
+    }
+
+    /**
+     * 缓存只能放3个序列，20个序列轮流取号，每个序列的序号仍然连续，没有因为淘汰浪费
+     */
+    @Test
+    public void testReactivateEvictedRanges() {
+        SequenceContext.setCacheSize(3, 2, 1);
+        InMemorySequenceDAO dao = new InMemorySequenceDAO();
+        SequenceContext.initialize(dao, dao);
+
+        for (long round = 1; round <= ROUNDS; round++) {
+            for (int i = 0; i < NAMES; i++) {
+                Assert.assertEquals(round, SequenceContext.getNextSeq("tenant_" + i, true, 1, Long.MAX_VALUE, 1, 100, false));
+            }
+        }
+        SequenceCache cache = SequenceContext.getCache();
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertTrue(cache.getReactivationCount() > 0);
+
+        SequenceContext.shutdown();
+        for (int i = 0; i < NAMES; i++) {
+            Assert.assertEquals(ROUNDS + 1, dao.queryBySeqNameForUpdate("_dynamic_tenant_" + i).getCurrent());
+        }
+    }
+
+    /**
+     * 开启预取后淘汰号段环非空的序列，当前号段和号段环中的号段都保留，重新加载时全部取回，序号仍然连续
+     */
+    @Test
+    public void testReactivateReserveRing() throws Exception {
+        SequenceContext.setCacheSize(3, 2, 1);
+        SequenceContext.setPrefetchThreshold(0.5);
+        SequenceContext.setReserveRing(2, 2, 1000);
+        InMemorySequenceDAO dao = new InMemorySequenceDAO();
+        SequenceContext.initialize(dao, dao);
+
+        Assert.assertEquals(1, SequenceContext.getNextSeq("hot", true, 1, Long.MAX_VALUE, 1, 10, false));
+        Sequence hot = SequenceContext.getCache().peek("_dynamic_hot");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hot.getReserveRing().size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, hot.getReserveRing().size());
+
+        for (int i = 0; SequenceContext.getCache().peek("_dynamic_hot") != null; i++) {
+            Assert.assertTrue(i < 100);
+            SequenceContext.getNextSeq("cold_" + i, true, 1, Long.MAX_VALUE, 1, 10, false);
+        }
+        Assert.assertTrue(hot.isEvicted());
+        Assert.assertTrue(hot.getReserveRing().isEmpty());
+        int retained = SequenceContext.getCache().getEvictedRangeCount();
+        Assert.assertTrue(retained >= 3);
+
+        Assert.assertEquals(2, SequenceContext.getNextSeq("hot", true, 1, Long.MAX_VALUE, 1, 10, false));
+        Sequence reactivated = SequenceContext.getCache().peek("_dynamic_hot");
+        Assert.assertEquals(2, reactivated.getReserveRing().size());
+        Assert.assertEquals(retained - 3, SequenceContext.getCache().getEvictedRangeCount());
+        for (long i = 3; i <= 30; i++) {
+            Assert.assertEquals(i, SequenceContext.getNextSeq("hot", true, 1, Long.MAX_VALUE, 1, 10, false));
+        }
+
+        SequenceContext.shutdown();
+        Assert.assertEquals(31, dao.queryBySeqNameForUpdate("_dynamic_hot").getCurrent());
+    }
+}
@@ -0,0 +1,192 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import cn.bridgeli.middleware.sequence.dao.H2Dialect;
+import cn.bridgeli.middleware.sequence.dao.H2SequenceDialect;
+import cn.bridgeli.middleware.sequence.dao.JdbcSequenceDAO;
+import cn.bridgeli.middleware.sequence.dao.SequenceTransaction;
+import cn.bridgeli.middleware.sequence.dao.StandardDialect;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 在内嵌H2上测试sequence表和原生序列两种后端
+ *
+ * @author bridgeli
+ */
+public class SequenceContextH2Test {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 2000;
+
+    @Before
+    public void setUp() {
+        SequenceContext.reset();
+    }
+
+    @After
+    public void tearDown() {
+        SequenceContext.reset();
+    }
+
+    @Test
+    public void testStandardDialect() throws Exception {
+        H2Backend backend = H2Backend.standard();
+        backend.insert("order_id", 1, Long.MAX_VALUE, 1, 100, false);
+        SequenceContext.initialize(backend.getDataSource(), new StandardDialect());
+
+        Assert.assertEquals(1, SequenceContext.getNextSeq("order_id", false, 0, 0, 0, 0, false));
+        assertNoDuplicates("order_id", false, 1);
+        SequenceRange range = SequenceContext.getNextSeqRange("order_id", false, 0, 0, 0, 0, false, 500);
+        Assert.assertEquals(500, range.getSize());
+        assertNoDuplicates("dynamic_id", true, 3);
+    }
+
+    @Test
+    public void testMySQLDialect() throws Exception {
+        H2Backend backend = H2Backend.mysql();
+        SequenceContext.setAtomicClaim(false);
+        SequenceContext.initialize(backend.getDataSource());
+        assertNoDuplicates("dynamic_id", true, 1);
+        Assert.assertEquals(Collections.singletonList("_dynamic_dynamic_id"),
+                SequenceContext.getSequenceDAO().queryNamesByPrefix("_dynamic_"));
+    }
+
+    /**
+     * 升级前的spring配置：bean的class为SequenceContext并注入dataSource
+     */
+    @Test
+    public void testLegacySpringBean() {
+        H2Backend backend = H2Backend.mysql();
+        SequenceContext.setAtomicClaim(false);
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("dataSource", backend.getDataSource());
+        new XmlBeanDefinitionReader(beanFactory).loadBeanDefinitions(new ClassPathResource("legacy-sequence-context.xml"));
+        beanFactory.preInstantiateSingletons();
+
+        Assert.assertEquals(1, SequenceContext.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 1, 100, false));
+        Assert.assertEquals(2, SequenceContext.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 1, 100, false));
+    }
+
+    /**
+     * H2Dialect单条语句领取号段并直接返回领取后的current，不再先select for update
+     */
+    @Test
+    public void testClaimReturningDialect() throws Exception {
+        H2Backend backend = H2Backend.standard();
+        backend.insert("order_id", 1, Long.MAX_VALUE, 1, 100, false);
+        backend.insert("small_id", 1, 50, 1, 100, false);
+        SequenceContext.initialize(backend.getDataSource(), new H2Dialect());
+
+        final JdbcSequenceDAO dao = (JdbcSequenceDAO) SequenceContext.getSequenceDAO();
+        Assert.assertEquals(Long.valueOf(101), dao.execute(new SequenceTransaction.Callback<Long>() {
+            @Override
+            public Long doInTransaction() {
+                return dao.claimBySeqName("order_id", 100);
+            }
+        }));
+        // 剩余不足时不领取，由调用方加锁查询后处理
+        Assert.assertNull(dao.execute(new SequenceTransaction.Callback<Long>() {
+            @Override
+            public Long doInTransaction() {
+                return dao.claimBySeqName("small_id", 100);
+            }
+        }));
+        Assert.assertEquals(1, dao.queryBySeqNameForUpdate("small_id").getCurrent());
+        Assert.assertEquals(101, dao.queryBySeqNameForUpdate("order_id").getCurrent());
+
+        Assert.assertEquals(101, SequenceContext.getNextSeq("order_id", false, 0, 0, 0, 0, false));
+        assertNoDuplicates("order_id", false, 1);
+        assertNoDuplicates("dynamic_id", true, 1);
+    }
+
+    /**
+     * 关闭时归还的号段在重新初始化后继续使用
+     */
+    @Test
+    public void testShutdownReturnsUnused() throws Exception {
+        H2Backend backend = H2Backend.standard();
+        backend.insert("order_id", 1, Long.MAX_VALUE, 1, 100, false);
+        SequenceContext.initialize(backend.getDataSource(), new StandardDialect());
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertEquals(i, SequenceContext.getNextSeq("order_id", false, 0, 0, 0, 0, false));
+        }
+        Assert.assertEquals(1, SequenceContext.shutdown());
+
+        SequenceContext.reset();
+        SequenceContext.initialize(backend.getDataSource(), new StandardDialect());
+        Assert.assertEquals(11, SequenceContext.getNextSeq("order_id", false, 0, 0, 0, 0, false));
+    }
+
+    @Test
+    public void testNativeSequence() throws Exception {
+        H2Backend backend = H2Backend.standard();
+        backend.execute("CREATE SEQUENCE \"order_id\" START WITH 1 INCREMENT BY 100 MINVALUE 1 MAXVALUE 100000 NO CYCLE");
+        SequenceContext.initialize(backend.getDataSource(), new H2SequenceDialect());
+
+        Assert.assertEquals(1, SequenceContext.getNextSeq("order_id", false, 0, 0, 0, 0, false));
+        assertNoDuplicates("order_id", false, 1);
+        assertNoDuplicates("dynamic_id", true, 1);
+        Assert.assertEquals(0, SequenceContext.shutdown());
+    }
+
+    /**
+     * 不循环的原生序列用完后报错，不会重复发号
+     */
+    @Test
+    public void testNativeSequenceExhausted() throws Exception {
+        H2Backend backend = H2Backend.standard();
+        SequenceContext.initialize(backend.getDataSource(), new H2SequenceDialect());
+        for (long i = 1; i <= 1000; i++) {
+            Assert.assertEquals(i, SequenceContext.getNextSeq("small_id", true, 1, 1001, 1, 100, false));
+        }
+        try {
+            SequenceContext.getNextSeq("small_id", true, 1, 1001, 1, 100, false);
+            Assert.fail("原生序列已用完");
+        } catch (SequenceException e) {
+            // 预期
+        }
+    }
+
+    private static void assertNoDuplicates(final String seqName, final boolean dynamic, final long step) throws Exception {
+        final Set<Long> seen = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int duplicates = 0;
+                        for (int i = 0; i < PER_THREAD; i++) {
+                            if (!seen.add(SequenceContext.getNextSeq(seqName, dynamic, 1, Long.MAX_VALUE, step, 50, false))) {
+                                duplicates++;
+                            }
+                        }
+                        return duplicates;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(0, future.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(THREADS * PER_THREAD, seen.size());
+    }
+}
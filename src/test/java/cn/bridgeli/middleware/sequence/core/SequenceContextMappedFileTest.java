@@ -0,0 +1,98 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import cn.bridgeli.middleware.sequence.dao.MappedFileSequenceDAO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * 测试内存映射文件后端的重启续号和异常退出后的恢复
+ *
+ * @author bridgeli
+ */
+public class SequenceContextMappedFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        SequenceContext.reset();
+    }
+
+    @After
+    public void tearDown() {
+        SequenceContext.reset();
+    }
+
+    /**
+     * 正常关闭时归还的号段在重新打开后继续使用
+     */
+    @Test
+    public void testShutdownReturnsUnused() throws Exception {
+        File file = folder.newFile("sequence.dat");
+        Assert.assertTrue(SequenceContext.initialize(file));
+        Assert.assertFalse(SequenceContext.initialize(file));
+        for (long i = 1; i <= 10; i++) {
+            Assert.assertEquals(i, SequenceContext.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 1, 100, false));
+        }
+        Assert.assertEquals(1, SequenceContext.shutdown());
+
+        SequenceContext.reset();
+        SequenceContext.initialize(file);
+        Assert.assertEquals(11, SequenceContext.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 1, 100, false));
+        Assert.assertEquals(Arrays.asList("_dynamic_order_id"), SequenceContext.getSequenceDAO().queryNamesByPrefix("_dynamic_"));
+    }
+
+    /**
+     * 没有关闭就退出时从持久化的高水位继续，不会重复发号
+     */
+    @Test
+    public void testRecoverFromMark() throws Exception {
+        File file = folder.newFile("sequence.dat");
+        MappedFileSequenceDAO dao = new MappedFileSequenceDAO(file, 2);
+        Sequence sequence = new Sequence();
+        sequence.setName("order_id");
+        sequence.setCurrent(1);
+        sequence.setMin(1);
+        sequence.setMax(Long.MAX_VALUE);
+        sequence.setStep(1);
+        sequence.setCount(100);
+        sequence.setLoop(Sequence.LOOP_NO);
+        Assert.assertEquals(1, dao.insert(sequence));
+        try {
+            dao.insert(sequence);
+            Assert.fail("序号已经存在");
+        } catch (DuplicateSequenceException e) {
+            // 预期
+        }
+
+        long end = 0;
+        for (int i = 0; i < 5; i++) {
+            end = dao.claimBySeqName("order_id", 100);
+        }
+        Assert.assertEquals(501, end);
+        dao.close();
+        // 模拟异常退出时最后几次没有落盘的current丢失：第一条记录的current在文件偏移64+128处
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(192);
+            raf.writeLong(201);
+        }
+
+        dao = new MappedFileSequenceDAO(file, 2);
+        try {
+            long current = dao.queryBySeqNameForUpdate("order_id").getCurrent();
+            Assert.assertTrue("恢复后的current " + current + " 不能小于已经发出的501", current >= 501);
+            Assert.assertEquals(current + 100, dao.claimBySeqName("order_id", 100).longValue());
+        } finally {
+            dao.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 大量并发调用方在慢数据库上取号的压力测试，运行在Java 21及以上时每个调用方一个虚拟线程
+ *
+ * @author bridgeli
+ */
+public class SequenceContextStressTest {
+
+    private static final int CALLERS = 100000;
+    private static final long DB_LATENCY_MICROS = 1000;
+    private static final long COUNT = 50;
+
+    @Before
+    public void setUp() {
+        SequenceContext.reset();
+    }
+
+    @After
+    public void tearDown() {
+        SequenceContext.reset();
+    }
+
+    @Test
+    public void testSyncRefill() throws Exception {
+        InMemorySequenceDAO dao = new InMemorySequenceDAO(DB_LATENCY_MICROS);
+        SequenceContext.initialize(dao, dao);
+        assertNoDuplicates("stress_sync");
+    }
+
+    @Test
+    public void testPrefetchRefill() throws Exception {
+        InMemorySequenceDAO dao = new InMemorySequenceDAO(DB_LATENCY_MICROS);
+        SequenceContext.setPrefetchThreshold(0.5);
+        SequenceContext.setReserveRing(1, 4, 1);
+        SequenceContext.initialize(dao, dao);
+        assertNoDuplicates("stress_prefetch");
+    }
+
+    /**
+     * 初始化之前就开始取号的调用方，等初始化完成后继续
+     */
+    @Test
+    public void testAwaitInitialized() throws Exception {
+        final InMemorySequenceDAO dao = new InMemorySequenceDAO(DB_LATENCY_MICROS);
+        Thread initializer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                SequenceContext.initialize(dao, dao);
+            }
+        });
+        initializer.start();
+        assertNoDuplicates("stress_init");
+        initializer.join();
+    }
+
+    private void assertNoDuplicates(final String seqName) throws Exception {
+        final ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<Long, Boolean>(CALLERS * 2);
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(CALLERS);
+        ExecutorService executor = newExecutor();
+        try {
+            for (int i = 0; i < CALLERS; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            long id = SequenceContext.getNextSeq(seqName, true, 1, Long.MAX_VALUE, 1, COUNT, false);
+                            if (seen.putIfAbsent(id, Boolean.TRUE) != null) {
+                                duplicates.incrementAndGet();
+                            }
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            Assert.assertTrue("压力测试超时", done.await(5, TimeUnit.MINUTES));
+        } finally {
+            executor.shutdownNow();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(CALLERS, seen.size());
+    }
+
+    /**
+     * 有虚拟线程时每个调用方一个虚拟线程，否则使用固定大小的平台线程池
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(200);
+        }
+    }
+}
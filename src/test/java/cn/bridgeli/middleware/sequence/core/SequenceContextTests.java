@@ -0,0 +1,19 @@
+package cn.bridgeli.middleware.sequence.core;
+
+/**
+ * 供其他包的测试使用的SequenceContext辅助方法
+ *
+ * @author bridgeli
+ */
+public final class SequenceContextTests {
+
+    private SequenceContextTests() {
+    }
+
+    /**
+     * 关闭后台线程并清空所有静态状态，见SequenceContext.reset
+     */
+    public static void reset() {
+        SequenceContext.reset();
+    }
+}
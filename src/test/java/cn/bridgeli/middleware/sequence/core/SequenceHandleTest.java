@@ -0,0 +1,67 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试序号句柄在初始化之前创建、序列被淘汰出缓存后继续使用
+ *
+ * @author bridgeli
+ */
+public class SequenceHandleTest {
+
+    @Before
+    public void setUp() {
+        SequenceContext.reset();
+    }
+
+    @After
+    public void tearDown() {
+        SequenceContext.reset();
+    }
+
+    @Test
+    public void testHandleAcrossEviction() {
+        SequenceHandle handle = SequenceContext.getHandle("hot_id", true, 1, Long.MAX_VALUE, 1, 10, false);
+        SequenceContext.setCacheSize(3, 2, 1);
+        InMemorySequenceDAO dao = new InMemorySequenceDAO();
+        SequenceContext.initialize(dao, dao);
+
+        for (long i = 1; i <= 1000; i++) {
+            Assert.assertEquals(i, handle.next());
+            SequenceContext.getNextSeq("cold_id_" + i, true, 1, Long.MAX_VALUE, 1, 10, false);
+        }
+        Assert.assertTrue(SequenceContext.getCache().getEvictionCount() > 0);
+
+        SequenceRange range = handle.nextRange(25);
+        Assert.assertEquals(1001, range.getStart());
+        Assert.assertEquals(1026, SequenceContext.getNextSeq("hot_id", true, 1, Long.MAX_VALUE, 1, 10, false));
+    }
+
+    /**
+     * 句柄取号不查询缓存，需要自己设置访问标记，否则常用的序列会被当作不活跃的淘汰
+     */
+    @Test
+    public void testHandleMarksReferenced() {
+        SequenceHandle handle = SequenceContext.getHandle("hot_id", true, 1, Long.MAX_VALUE, 1, 10, false);
+        InMemorySequenceDAO dao = new InMemorySequenceDAO();
+        SequenceContext.initialize(dao, dao);
+
+        Assert.assertEquals(1, handle.next());
+        Sequence sequence = SequenceContext.getCache().peek("_dynamic_hot_id");
+        sequence.setReferenced(false);
+        Assert.assertEquals(2, handle.next());
+        Assert.assertTrue(sequence.isReferenced());
+
+        sequence.setReferenced(false);
+        Assert.assertEquals(3, handle.nextRange(5).getStart());
+        Assert.assertTrue(sequence.isReferenced());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidArguments() {
+        SequenceContext.getHandle("bad_id", true, 10, 1, 1, 10, false);
+    }
+}
@@ -0,0 +1,116 @@
+package cn.bridgeli.middleware.sequence.core;
+
+import cn.bridgeli.middleware.sequence.dao.StandardDialect;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 在内嵌H2上测试worker id的租用、续约和抢占
+ *
+ * @author bridgeli
+ */
+public class WorkerIdLeaseTest {
+
+    private static final long LEASE_MILLIS = 600L;
+    private static final long MAX_BACKWARD_MILLIS = 100L;
+    private static final long CLOCK_SKEW_MILLIS = 100L;
+
+    private H2Backend backend;
+
+    @Before
+    public void setUp() {
+        SequenceContext.reset();
+        backend = H2Backend.standard();
+        SequenceContext.initialize(backend.getDataSource(), new StandardDialect());
+    }
+
+    @After
+    public void tearDown() {
+        SequenceContext.reset();
+    }
+
+    @Test
+    public void testAcquire() {
+        WorkerIdLease first = newLease(1);
+        WorkerIdLease second = newLease(1);
+        int firstId = first.acquire();
+        int secondId = second.acquire();
+        Assert.assertTrue(firstId != secondId);
+        Assert.assertTrue(first.isValid());
+        Assert.assertTrue(second.isValid());
+        try {
+            newLease(1).acquire();
+            Assert.fail("worker id已经全部租出");
+        } catch (SequenceException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRenew() throws Exception {
+        WorkerIdLease lease = newLease(0);
+        lease.acquire();
+        long expire = lease.getLeaseExpire();
+        Thread.sleep(LEASE_MILLIS * 2);
+        Assert.assertTrue(lease.isValid());
+        Assert.assertTrue(lease.getLeaseExpire() > expire);
+
+        // 其他jvm抢走了租约，续约时发现并失效
+        backend.execute("UPDATE sequence SET current = 1 WHERE name = '_snowflake_worker_0'");
+        Thread.sleep(LEASE_MILLIS);
+        Assert.assertFalse(lease.isValid());
+        Assert.assertEquals(-1, lease.getWorkerId());
+        Assert.assertNull(lease.getGrant());
+    }
+
+    /**
+     * 到期后还要再等maxBackwardMillis加上时钟偏差余量才能抢占
+     */
+    @Test
+    public void testTakeover() {
+        long expire = System.currentTimeMillis() - (MAX_BACKWARD_MILLIS + CLOCK_SKEW_MILLIS) / 2;
+        backend.insert("_snowflake_worker_0", expire, Long.MAX_VALUE, 1, 1, false);
+        try {
+            newLease(0).acquire();
+            Assert.fail("刚过期的worker id不能被抢占");
+        } catch (SequenceException e) {
+            // expected
+        }
+
+        expire = System.currentTimeMillis() - (MAX_BACKWARD_MILLIS + CLOCK_SKEW_MILLIS) * 2;
+        backend.execute("UPDATE sequence SET current = " + expire + " WHERE name = '_snowflake_worker_0'");
+        WorkerIdLease lease = newLease(0);
+        Assert.assertEquals(0, lease.acquire());
+        Assert.assertTrue(lease.isValid());
+    }
+
+    /**
+     * 租约的worker id和到期时间一起发布，到期前maxBackwardMillis停止发号
+     */
+    @Test
+    public void testGrant() {
+        WorkerIdLease lease = newLease(0);
+        Assert.assertNull(lease.getGrant());
+        lease.acquire();
+        WorkerIdLease.Grant grant = lease.getGrant();
+        Assert.assertEquals(0, grant.getWorkerId());
+        Assert.assertEquals(lease.getLeaseExpire(), grant.getExpire());
+
+        long expire = grant.getExpire();
+        Assert.assertTrue(grant.isValid(expire - MAX_BACKWARD_MILLIS - 1, MAX_BACKWARD_MILLIS));
+        Assert.assertFalse(grant.isValid(expire - MAX_BACKWARD_MILLIS, MAX_BACKWARD_MILLIS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackwardNotShorterThanLease() {
+        new WorkerIdLease(0, LEASE_MILLIS, LEASE_MILLIS);
+    }
+
+    private WorkerIdLease newLease(int maxWorkerId) {
+        WorkerIdLease lease = new WorkerIdLease(maxWorkerId, LEASE_MILLIS, MAX_BACKWARD_MILLIS);
+        lease.setClockSkewMillis(CLOCK_SKEW_MILLIS);
+        return lease;
+    }
+}
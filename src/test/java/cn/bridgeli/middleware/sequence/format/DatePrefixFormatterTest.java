@@ -0,0 +1,138 @@
+package cn.bridgeli.middleware.sequence.format;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * 测试日期前缀格式化器的各种写入方式、字段补零和前缀缓存的切换
+ *
+ * @author bridgeli
+ */
+public class DatePrefixFormatterTest {
+
+    private static final String PATTERN = "yyyyMMddHHmmss";
+    private static final String MILLIS_PATTERN = "yyyyMMddHHmmssSSS";
+
+    @Test
+    public void testCharArray() {
+        DatePrefixFormatter formatter = DatePrefixFormatter.getInstance(PATTERN);
+        char[] buf = new char[64];
+        buf[0] = '#';
+        int written = formatter.format(123L, buf, 1);
+        String text = new String(buf, 1, written);
+        Assert.assertEquals('#', buf[0]);
+        Assert.assertEquals(PATTERN.length() + 3, written);
+        Assert.assertTrue(text.endsWith("123"));
+        assertPrefix(PATTERN, text);
+
+        try {
+            formatter.format(123L, new char[PATTERN.length() + 2], 0);
+            Assert.fail("buf空间不足");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStringBuilder() {
+        DatePrefixFormatter formatter = DatePrefixFormatter.getInstance(PATTERN);
+        StringBuilder sb = new StringBuilder("order-");
+        Assert.assertSame(sb, formatter.format(42L, sb));
+        Assert.assertTrue(sb.toString().startsWith("order-"));
+        Assert.assertTrue(sb.toString().endsWith("42"));
+        assertPrefix(PATTERN, sb.substring("order-".length()));
+    }
+
+    @Test
+    public void testByteBuffer() {
+        DatePrefixFormatter formatter = DatePrefixFormatter.getInstance("yyyy年MM月dd日");
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        int written = formatter.format(-907L, buf);
+        Assert.assertEquals(buf.position(), written);
+        buf.flip();
+        String text = Charset.forName("UTF-8").decode(buf).toString();
+        Assert.assertTrue(text.endsWith("日-907"));
+        Assert.assertEquals(new SimpleDateFormat("yyyy年MM月dd日").format(new Date()) + "-907", text);
+
+        ByteBuffer small = ByteBuffer.allocate(text.getBytes(Charset.forName("UTF-8")).length - 1);
+        try {
+            formatter.format(-907L, small);
+            Assert.fail("buf空间不足");
+        } catch (BufferOverflowException e) {
+            Assert.assertEquals(0, small.position());
+        }
+    }
+
+    @Test
+    public void testDigits() {
+        long[] values = {0, 7, -7, 10, 99, 100, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        char[] buf = new char[32];
+        for (long value : values) {
+            int size = DatePrefixFormatter.writeDigits(value, buf, 3);
+            Assert.assertEquals(String.valueOf(value), new String(buf, 3, size));
+            Assert.assertEquals(String.valueOf(value).length(), DatePrefixFormatter.stringSize(value));
+        }
+    }
+
+    /**
+     * 月、日、时、分、秒、毫秒不足位数时补零
+     */
+    @Test
+    public void testFieldPadding() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2016, Calendar.JANUARY, 2, 3, 4, 5);
+        calendar.set(Calendar.MILLISECOND, 6);
+        long time = calendar.getTimeInMillis();
+        Assert.assertEquals("20160102030405006", prefixText(MILLIS_PATTERN, time));
+        Assert.assertEquals("2016-01-02 03:04:05", prefixText("yyyy-MM-dd HH:mm:ss", time));
+    }
+
+    /**
+     * 按秒缓存的前缀在同一秒内复用，下一秒切换；包含毫秒时每毫秒切换
+     */
+    @Test
+    public void testRollover() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2016, Calendar.DECEMBER, 31, 23, 59, 59);
+        long time = calendar.getTimeInMillis();
+
+        DatePrefixFormatter formatter = DatePrefixFormatter.getInstance(PATTERN);
+        DatePrefixFormatter.Prefix prefix = formatter.prefix(time);
+        Assert.assertEquals("20161231235959", new String(prefix.chars));
+        Assert.assertSame(prefix, formatter.prefix(time + 999));
+        Assert.assertEquals("20170101000000", new String(formatter.prefix(time + 1000).chars));
+
+        DatePrefixFormatter millis = DatePrefixFormatter.getInstance(MILLIS_PATTERN);
+        Assert.assertEquals("20161231235959998", new String(millis.prefix(time + 998).chars));
+        Assert.assertEquals("20161231235959999", new String(millis.prefix(time + 999).chars));
+        Assert.assertEquals("20170101000000000", new String(millis.prefix(time + 1000).chars));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        DatePrefixFormatter.getInstance("yyyyMMddb");
+    }
+
+    private static String prefixText(String pattern, long time) {
+        return new String(DatePrefixFormatter.getInstance(pattern).prefix(time).chars);
+    }
+
+    /**
+     * 前缀为当前秒或者上一秒的格式化结果，避免测试恰好跨秒
+     */
+    private static void assertPrefix(String pattern, String text) {
+        long now = System.currentTimeMillis();
+        String prefix = text.substring(0, pattern.length());
+        Assert.assertTrue(prefix.equals(new SimpleDateFormat(pattern).format(new Date(now)))
+                || prefix.equals(new SimpleDateFormat(pattern).format(new Date(now - 1000))));
+    }
+}
@@ -0,0 +1,148 @@
+package cn.bridgeli.middleware.sequence.server;
+
+import cn.bridgeli.middleware.sequence.core.InMemorySequenceDAO;
+import cn.bridgeli.middleware.sequence.core.SequenceContext;
+import cn.bridgeli.middleware.sequence.core.SequenceContextTests;
+import cn.bridgeli.middleware.sequence.core.SequenceException;
+import cn.bridgeli.middleware.sequence.core.SequenceRange;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 在回环地址上启动进程内的序号服务端，测试流水线客户端
+ *
+ * @author bridgeli
+ */
+public class SequenceServerTest {
+
+    private static final int CLIENTS = 4;
+    private static final int PER_CLIENT = 20000;
+
+    private SequenceServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        SequenceContextTests.reset();
+        InMemorySequenceDAO dao = new InMemorySequenceDAO(1000);
+        SequenceContext.initialize(dao, dao);
+        server = new SequenceServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        SequenceContextTests.reset();
+    }
+
+    /**
+     * 多个客户端不等待响应连续发送请求，取到的序号不重复
+     */
+    @Test
+    public void testPipelinedSingleIds() throws Exception {
+        Set<Long> seen = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        List<SequenceClient> clients = new ArrayList<SequenceClient>();
+        List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>(CLIENTS * PER_CLIENT);
+        try {
+            for (int c = 0; c < CLIENTS; c++) {
+                clients.add(new SequenceClient(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort()));
+            }
+            for (int i = 0; i < PER_CLIENT; i++) {
+                for (SequenceClient client : clients) {
+                    futures.add(client.getNextSeqAsync("order_id", true, 1, Long.MAX_VALUE, 1, 100, false));
+                }
+            }
+            for (CompletableFuture<Long> future : futures) {
+                Assert.assertTrue(seen.add(future.get()));
+            }
+        } finally {
+            for (SequenceClient client : clients) {
+                client.close();
+            }
+        }
+        Assert.assertEquals(CLIENTS * PER_CLIENT, seen.size());
+    }
+
+    @Test
+    public void testRangeAndError() throws Exception {
+        SequenceClient client = new SequenceClient(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+        try {
+            Assert.assertEquals(1, client.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 2, 100, false));
+            SequenceRange range = client.getNextSeqRange("order_id", true, 1, Long.MAX_VALUE, 2, 100, false, 500);
+            Assert.assertEquals(500, range.getSize());
+            Assert.assertEquals(2, range.getStep());
+            try {
+                client.getNextSeqRangeAsync("bad_id", true, 10, 1, 1, 100, false, 1).get();
+                Assert.fail("最大值小于最小值");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof SequenceException);
+            }
+            // 出错后连接仍然可用
+            Assert.assertEquals(3, client.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 2, 100, false));
+        } finally {
+            client.close();
+        }
+        try {
+            client.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 2, 100, false);
+            Assert.fail("客户端已关闭");
+        } catch (SequenceException e) {
+            // 预期
+        }
+        Assert.assertTrue(client.isClosed());
+    }
+
+    /**
+     * 同步取号超时后不再保留等待中的请求
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        SequenceClient client = new SequenceClient(InetAddress.getLoopbackAddress().getHostAddress(), silent.getLocalPort());
+        try {
+            client.setTimeoutMillis(50);
+            try {
+                client.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 1, 100, false);
+                Assert.fail("服务端不响应");
+            } catch (SequenceException e) {
+                // 预期
+            }
+            Assert.assertEquals(0, client.getPendingCount());
+            Assert.assertFalse(client.isClosed());
+        } finally {
+            client.close();
+            silent.close();
+        }
+    }
+
+    /**
+     * 服务端关闭后客户端随之关闭，不自动重连
+     */
+    @Test
+    public void testClosedWithServer() throws Exception {
+        SequenceClient client = new SequenceClient(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+        try {
+            Assert.assertEquals(1, client.getNextSeq("order_id", true, 1, Long.MAX_VALUE, 1, 100, false));
+            server.close();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!client.isClosed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(client.isClosed());
+        } finally {
+            client.close();
+        }
+    }
+}